@@ -13,11 +13,15 @@ class Constants {
 
         val PMDTASK = "pmdcheck"
 
+        val PMD_FULL_TASK = "pmdfull"
+
+        val SEED_FULL_REPORT = "seedfullreport"
+
         val P3C_PMD_DEPENDENCY = "com.alibaba.p3c:p3c-pmd:1.3.6"
 
         val PMD_DEPENDENCY = "net.sourceforge.pmd:pmd:5.5.2"
 
-        val ALIRULESETS = mutableListOf<String>(
+        val ALIRULESETS = listOf(
             "rulesets/java/ali-comment.xml", "rulesets/java/ali-concurrent.xml",
             "rulesets/java/ali-constant.xml", "rulesets/java/ali-exception.xml", "rulesets/java/ali-flowcontrol.xml",
             "rulesets/java/ali-naming.xml",
@@ -29,6 +33,22 @@ class Constants {
         )
 
         val HECATONCHEIRESEXTENSION_NAME="hecatoncheires"
+
+        val CHANGE_SET_PROPERTY = "hecatoncheiresChangeSet"
+
+        val OPTIONS_PROPERTY = "hecatoncheiresOptions"
+
+        val CACHE_DIR = "hecatoncheires/cache"
+
+        val LINT_RESULT = "lint"
+
+        val PMD_RESULT = "pmd"
+
+        val CHECK_RESULT = "check"
+
+        val INCREMENT_CHECK = "incrementcheck"
+
+        val SOURCE_BUFFER_PROPERTY = "hecatoncheiresSourceBuffer"
     }
 
 }
\ No newline at end of file
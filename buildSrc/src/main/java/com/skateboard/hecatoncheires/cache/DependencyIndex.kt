@@ -0,0 +1,203 @@
+package com.skateboard.hecatoncheires.cache
+
+import java.io.*
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+/**
+ * Reverse-dependency index of the sources below [rootDir], stored in [file].
+ *
+ * Every java/kotlin source and resource file is reduced to the symbols it provides (declared
+ * types, resources) and the symbols it references (imports, type names, `R.type.name`,
+ * `@type/name`, view classes in xml). A file depends on another when it references one of its
+ * symbols. Only files whose size or modification time changed are scanned again.
+ *
+ * The index is a single binary file, a string table followed by one record per file, and is
+ * read through a memory mapping.
+ */
+class DependencyIndex private constructor(private val rootDir: File, private val file: File) {
+
+    private val entries = mutableMapOf<String, Entry>()
+
+    private var dirty = false
+
+    /**
+     * Brings the index up to date with [sourceFiles], the complete set of indexed files, and
+     * returns the entries of [changedFiles] as they were before, so that symbols a change
+     * removed still count.
+     */
+    fun update(sourceFiles: Collection<File>, changedFiles: Collection<File>): Map<File, Entry?> {
+        val previous = mutableMapOf<File, Entry?>()
+        changedFiles.forEach { previous[it] = entries[toKey(it)] }
+        val keys = HashSet<String>()
+        sourceFiles.forEach { sourceFile ->
+            val key = toKey(sourceFile)
+            keys.add(key)
+            val entry = entries[key]
+            if (entry == null || entry.lastModified != sourceFile.lastModified() || entry.length != sourceFile.length()) {
+                entries[key] = SourceScanner.scan(sourceFile)
+                dirty = true
+            }
+        }
+        if (entries.keys.retainAll(keys)) {
+            dirty = true
+        }
+        return previous
+    }
+
+    /**
+     * Returns the symbols [changedFiles] provide or provided.
+     */
+    fun getSymbols(changedFiles: Collection<File>, previous: Map<File, Entry?>): Set<String> {
+        val symbols = HashSet<String>()
+        changedFiles.forEach {
+            entries[toKey(it)]?.let { entry -> symbols.addAll(entry.provides) }
+            previous[it]?.let { entry -> symbols.addAll(entry.provides) }
+        }
+        return symbols
+    }
+
+    /**
+     * Returns the indexed files referencing one of [symbols], [changedFiles] excluded.
+     */
+    fun getDependents(symbols: Set<String>, changedFiles: Collection<File>): Set<File> {
+        if (symbols.isEmpty()) {
+            return emptySet()
+        }
+        val changedKeys = changedFiles.map { toKey(it) }.toSet()
+        val dependents = LinkedHashSet<File>()
+        entries.forEach { (key, entry) ->
+            if (!changedKeys.contains(key) && entry.references.any { symbols.contains(it) }) {
+                dependents.add(File(rootDir, key))
+            }
+        }
+        return dependents
+    }
+
+    fun save() {
+        if (!dirty) {
+            return
+        }
+        val strings = LinkedHashMap<String, Int>()
+        val intern = { value: String -> strings.getOrPut(value) { strings.size } }
+        val records = entries.map { (key, entry) ->
+            Record(intern(key), entry, entry.provides.map(intern), entry.references.map(intern))
+        }
+        file.parentFile.mkdirs()
+        // write aside and rename so a killed build never leaves half an index behind
+        val temp = File(file.parentFile, "${file.name}.tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(temp))).use { output ->
+                output.writeInt(VERSION)
+                output.writeInt(strings.size)
+                strings.keys.forEach {
+                    val bytes = it.toByteArray(Charsets.UTF_8)
+                    output.writeInt(bytes.size)
+                    output.write(bytes)
+                }
+                output.writeInt(records.size)
+                records.forEach {
+                    output.writeInt(it.path)
+                    output.writeLong(it.entry.lastModified)
+                    output.writeLong(it.entry.length)
+                    writeIds(output, it.provides)
+                    writeIds(output, it.references)
+                }
+            }
+            if (!temp.renameTo(file)) {
+                file.delete()
+                temp.renameTo(file)
+            }
+            dirty = false
+        } catch (e: IOException) {
+            e.printStackTrace()
+            temp.delete()
+        }
+    }
+
+    private fun read() {
+        if (!file.isFile) {
+            return
+        }
+        try {
+            FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+                val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                if (buffer.int != VERSION) {
+                    return
+                }
+                val strings = Array(buffer.int) {
+                    val bytes = ByteArray(buffer.int)
+                    buffer.get(bytes)
+                    String(bytes, Charsets.UTF_8)
+                }
+                for (i in 0 until buffer.int) {
+                    val path = strings[buffer.int]
+                    val lastModified = buffer.long
+                    val length = buffer.long
+                    val provides = readIds(buffer, strings)
+                    val references = readIds(buffer, strings)
+                    entries[path] = Entry(lastModified, length, provides, references)
+                }
+            }
+        } catch (e: Exception) {
+            // unreadable or truncated: start over
+            entries.clear()
+            dirty = true
+        }
+    }
+
+    private fun toKey(file: File): String {
+        return file.absoluteFile.relativeTo(rootDir).invariantSeparatorsPath
+    }
+
+    private fun writeIds(output: DataOutputStream, ids: List<Int>) {
+        output.writeInt(ids.size)
+        ids.forEach { output.writeInt(it) }
+    }
+
+    private fun readIds(buffer: ByteBuffer, strings: Array<String>): Set<String> {
+        val count = buffer.int
+        val ids = HashSet<String>(count * 2)
+        for (i in 0 until count) {
+            ids.add(strings[buffer.int])
+        }
+        return ids
+    }
+
+    class Entry(val lastModified: Long, val length: Long, val provides: Set<String>, val references: Set<String>)
+
+    private class Record(val path: Int, val entry: Entry, val provides: List<Int>, val references: List<Int>)
+
+    companion object {
+
+        private const val VERSION = 1
+
+        fun load(rootDir: File, file: File): DependencyIndex {
+            val index = DependencyIndex(rootDir.absoluteFile, file)
+            index.read()
+            return index
+        }
+
+        /**
+         * Returns whether [file] is one the index covers.
+         */
+        fun isIndexed(file: File): Boolean {
+            return SourceScanner.isSource(file)
+        }
+
+        /**
+         * Returns the symbols [file] provides, read from [text] when given.
+         */
+        fun getProvides(file: File, text: String? = null): Set<String> {
+            return SourceScanner.scan(file, text).provides
+        }
+
+        /**
+         * Returns the line ranges of [text] referencing one of [symbols].
+         */
+        fun getReferencingLines(text: String, symbols: Collection<String>): IntArray {
+            return SourceScanner.findReferencingLines(text, symbols)
+        }
+    }
+}
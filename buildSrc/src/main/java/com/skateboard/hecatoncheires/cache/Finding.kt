@@ -0,0 +1,56 @@
+package com.skateboard.hecatoncheires.cache
+
+import java.io.DataInputStream
+import java.io.DataOutputStream
+
+/**
+ * One lint issue or pmd violation of a single file, in a form that can be stored on disk.
+ *
+ * [rule] is the lint issue id or the pmd rule name, [category] the pmd rule set, and
+ * [severity] the lint severity name or the pmd priority. Lines are 1-based, -1 when unknown.
+ */
+data class Finding(
+    val rule: String,
+    val category: String,
+    val severity: String,
+    val beginLine: Int,
+    val beginColumn: Int,
+    val beginOffset: Int,
+    val endLine: Int,
+    val endColumn: Int,
+    val endOffset: Int,
+    val message: String
+) {
+
+    fun write(output: DataOutputStream) {
+        output.writeUTF(rule)
+        output.writeUTF(category)
+        output.writeUTF(severity)
+        output.writeInt(beginLine)
+        output.writeInt(beginColumn)
+        output.writeInt(beginOffset)
+        output.writeInt(endLine)
+        output.writeInt(endColumn)
+        output.writeInt(endOffset)
+        output.writeUTF(message)
+    }
+
+    companion object {
+
+        @JvmStatic
+        fun read(input: DataInputStream): Finding {
+            return Finding(
+                input.readUTF(),
+                input.readUTF(),
+                input.readUTF(),
+                input.readInt(),
+                input.readInt(),
+                input.readInt(),
+                input.readInt(),
+                input.readInt(),
+                input.readInt(),
+                input.readUTF()
+            )
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.skateboard.hecatoncheires.cache
+
+/**
+ * 64 bit FNV-1a fingerprints, used as primitive keys for findings instead of comparing them
+ * field by field.
+ */
+object Fingerprint {
+
+    private const val OFFSET_BASIS = -0x340d631b7bdddcdbL
+
+    private const val PRIME = 0x100000001b3L
+
+    @JvmStatic
+    fun of(vararg parts: String): Long {
+        var hash = OFFSET_BASIS
+        parts.forEach { hash = add(hash, it) }
+        return hash
+    }
+
+    /**
+     * Adds [part] to [hash], followed by a separator so that parts cannot run into each other.
+     */
+    @JvmStatic
+    fun add(hash: Long, part: String): Long {
+        var result = hash
+        for (char in part) {
+            result = (result xor char.toLong()) * PRIME
+        }
+        return result * PRIME
+    }
+
+    @JvmStatic
+    fun add(hash: Long, value: Int): Long {
+        var result = hash
+        for (shift in 0 until 32 step 8) {
+            result = (result xor ((value ushr shift) and 0xff).toLong()) * PRIME
+        }
+        return result * PRIME
+    }
+}
@@ -0,0 +1,101 @@
+package com.skateboard.hecatoncheires.cache
+
+import java.io.*
+import java.security.MessageDigest
+
+/**
+ * On-disk cache of per-file findings below [dir].
+ *
+ * An entry is addressed by the hash of the file content together with [configKey], which must
+ * capture everything else the findings depend on: tool version, rules and their configuration.
+ * Editing a file, the rules or the tool therefore simply misses; stale entries are never read.
+ */
+class ResultCache(private val dir: File, private val configKey: String) {
+
+    private val keys = mutableMapOf<File, String>()
+
+    /**
+     * Returns the cached findings of [file], or null when it has to be analyzed.
+     */
+    @Synchronized
+    fun get(file: File): List<Finding>? {
+        val entry = entryFile(file) ?: return null
+        if (!entry.isFile) {
+            return null
+        }
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(entry))).use { input ->
+                if (input.readInt() != VERSION) {
+                    return null
+                }
+                val count = input.readInt()
+                val findings = ArrayList<Finding>(count)
+                for (i in 0 until count) {
+                    findings.add(Finding.read(input))
+                }
+                return findings
+            }
+        } catch (e: IOException) {
+            entry.delete()
+            return null
+        }
+    }
+
+    @Synchronized
+    fun put(file: File, findings: List<Finding>) {
+        val entry = entryFile(file) ?: return
+        entry.parentFile.mkdirs()
+        // write aside and rename so a killed build never leaves half an entry behind
+        val temp = File(entry.parentFile, "${entry.name}.tmp")
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(temp))).use { output ->
+                output.writeInt(VERSION)
+                output.writeInt(findings.size)
+                findings.forEach { it.write(output) }
+            }
+            if (!temp.renameTo(entry)) {
+                entry.delete()
+                temp.renameTo(entry)
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+            temp.delete()
+        }
+    }
+
+    private fun entryFile(file: File): File? {
+        var key = keys[file]
+        if (key == null) {
+            if (!file.isFile) {
+                return null
+            }
+            key = hash(configKey.toByteArray(Charsets.UTF_8), file.readBytes())
+            keys[file] = key
+        }
+        return File(dir, "${key.substring(0, 2)}${File.separator}$key")
+    }
+
+    companion object {
+
+        private const val VERSION = 1
+
+        @JvmStatic
+        fun hash(vararg parts: ByteArray): String {
+            val digest = MessageDigest.getInstance("SHA-1")
+            parts.forEach {
+                digest.update(it)
+                digest.update(0.toByte())
+            }
+            val builder = StringBuilder()
+            digest.digest().forEach {
+                builder.append(String.format("%02x", it))
+            }
+            return builder.toString()
+        }
+
+        @JvmStatic
+        fun hash(text: String): String {
+            return hash(text.toByteArray(Charsets.UTF_8))
+        }
+    }
+}
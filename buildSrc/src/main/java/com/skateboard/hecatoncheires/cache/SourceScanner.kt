@@ -0,0 +1,197 @@
+package com.skateboard.hecatoncheires.cache
+
+import java.io.File
+
+/**
+ * Extracts the symbols [DependencyIndex] works with from a single file, using plain pattern
+ * matching instead of parsing. Symbols are `type:<qualified name>` and `res:<type>/<name>`.
+ *
+ * The result over-approximates: every capitalized identifier counts as a possible type
+ * reference, which costs at most an extra dependent to analyze.
+ */
+internal object SourceScanner {
+
+    private val PACKAGE = Regex("""^\s*package\s+([\w.]+)""", RegexOption.MULTILINE)
+
+    private val IMPORT = Regex("""^\s*import\s+(?:static\s+)?([\w.]+?)(\.\*)?\s*;?\s*$""", RegexOption.MULTILINE)
+
+    private val TYPE_DECLARATION = Regex("""\b(?:class|interface|enum|object|typealias)\s+(\w+)""")
+
+    private val TOP_LEVEL_FUNCTION = Regex("""^fun\s+(?:<[^>]*>\s*)?(?:[\w.]+\.)?(\w+)""", RegexOption.MULTILINE)
+
+    private val IDENTIFIER = Regex("""\b[A-Z]\w*\b""")
+
+    private val R_REFERENCE = Regex("""\bR\.(\w+)\.(\w+)""")
+
+    private val XML_REFERENCE = Regex("""[@?]\+?(\w+)/([\w.]+)""")
+
+    private val NEW_ID = Regex("""@\+id/(\w+)""")
+
+    private val VALUE = Regex("""<([\w-]+)\s[^>]*?\bname="([^"]+)"""")
+
+    private val ITEM_TYPE = Regex("""\btype="(\w+)"""")
+
+    private val XML_CLASS = Regex("""<([a-z]\w*(?:\.\w+)+)[\s/>]""")
+
+    private val CLASS_ATTRIBUTE = Regex("""(?:android:name|class|tools:context)="(\.?[\w.$]+)"""")
+
+    private val MANIFEST_PACKAGE = Regex("""\bpackage="([\w.]+)"""")
+
+    private val NAME = Regex("""\w+""")
+
+    private const val RES = "res"
+
+    private const val VALUES = "values"
+
+    fun isSource(file: File): Boolean {
+        val name = file.name
+        return name.endsWith(".java") || name.endsWith(".kt") || name.endsWith(".xml") || isResource(file)
+    }
+
+    /**
+     * Scans [file], or [text] as its content when given, e.g. an older version of it.
+     */
+    fun scan(file: File, text: String? = null): DependencyIndex.Entry {
+        val provides = HashSet<String>()
+        val references = HashSet<String>()
+        val name = file.name
+        val content = if (!name.endsWith(".java") && !name.endsWith(".kt") && !name.endsWith(".xml")) {
+            ""
+        } else {
+            text ?: try {
+                file.readText()
+            } catch (e: Exception) {
+                ""
+            }
+        }
+        when {
+            name.endsWith(".java") || name.endsWith(".kt") -> scanSource(file, content, provides, references)
+            isResource(file) -> scanResource(file, content, provides, references)
+            name.endsWith(".xml") -> scanXml(content, references)
+        }
+        return DependencyIndex.Entry(file.lastModified(), file.length(), provides, references)
+    }
+
+    /**
+     * Returns the lines of [text] naming one of [symbols] by its simple name, `R.type.name` or
+     * `@type/name`, as 1-based inclusive ranges flattened as `start, end, start, end, ...`.
+     */
+    fun findReferencingLines(text: String, symbols: Collection<String>): IntArray {
+        val patterns = symbols.mapNotNull { toPattern(it) }.toSet()
+        if (patterns.isEmpty()) {
+            return IntArray(0)
+        }
+        val regex = Regex(patterns.joinToString("|"))
+        val ranges = mutableListOf<Int>()
+        text.lineSequence().forEachIndexed { index, line ->
+            if (regex.containsMatchIn(line)) {
+                val number = index + 1
+                if (ranges.isNotEmpty() && ranges.last() == number - 1) {
+                    ranges[ranges.size - 1] = number
+                } else {
+                    ranges.add(number)
+                    ranges.add(number)
+                }
+            }
+        }
+        return ranges.toIntArray()
+    }
+
+    private fun toPattern(symbol: String): String? {
+        return when {
+            symbol.startsWith("type:") -> {
+                val simpleName = symbol.removePrefix("type:").substringAfterLast('.')
+                if (NAME.matches(simpleName)) """\b$simpleName\b""" else null
+            }
+            symbol.startsWith("res:") -> {
+                val type = symbol.removePrefix("res:").substringBefore('/')
+                val name = symbol.substringAfter('/')
+                // R fields replace the dots of resource names
+                if (NAME.matches(type) && NAME.matches(name)) {
+                    """\b$type[./]${name.replace("_", "[._]")}\b"""
+                } else {
+                    null
+                }
+            }
+            else -> null
+        }
+    }
+
+    private fun scanSource(file: File, text: String, provides: MutableSet<String>, references: MutableSet<String>) {
+        val packageName = PACKAGE.find(text)?.groupValues?.get(1) ?: ""
+        val prefix = if (packageName.isEmpty()) "" else "$packageName."
+        provides.add("type:$prefix${file.nameWithoutExtension}")
+        if (file.name.endsWith(".kt")) {
+            provides.add("type:$prefix${file.nameWithoutExtension}Kt")
+            TOP_LEVEL_FUNCTION.findAll(text).forEach { provides.add("type:$prefix${it.groupValues[1]}") }
+        }
+        TYPE_DECLARATION.findAll(text).forEach { provides.add("type:$prefix${it.groupValues[1]}") }
+
+        val wildcardImports = mutableListOf<String>()
+        IMPORT.findAll(text).forEach {
+            val imported = it.groupValues[1]
+            if (it.groupValues[2].isNotEmpty()) {
+                wildcardImports.add(imported)
+            } else {
+                references.add("type:$imported")
+                // static imports and nested classes name a member of the enclosing type
+                references.add("type:${imported.substringBeforeLast('.')}")
+            }
+        }
+        IDENTIFIER.findAll(text).map { it.value }.toSet().forEach { identifier ->
+            references.add("type:$prefix$identifier")
+            wildcardImports.forEach { references.add("type:$it.$identifier") }
+        }
+        R_REFERENCE.findAll(text).forEach {
+            references.add("res:${it.groupValues[1]}/${it.groupValues[2]}")
+        }
+    }
+
+    private fun scanResource(file: File, text: String, provides: MutableSet<String>, references: MutableSet<String>) {
+        val folderType = file.parentFile.name.substringBefore('-')
+        if (folderType == VALUES) {
+            VALUE.findAll(text).forEach {
+                val type = when (val tag = it.groupValues[1]) {
+                    "string-array", "integer-array" -> "array"
+                    "declare-styleable" -> "styleable"
+                    "item" -> ITEM_TYPE.find(it.value)?.groupValues?.get(1)
+                    else -> tag
+                }
+                if (type != null) {
+                    provides.add("res:$type/${toFieldName(it.groupValues[2])}")
+                }
+            }
+        } else {
+            provides.add("res:$folderType/${file.name.substringBefore('.')}")
+        }
+        NEW_ID.findAll(text).forEach { provides.add("res:id/${it.groupValues[1]}") }
+        scanXml(text, references)
+    }
+
+    private fun scanXml(text: String, references: MutableSet<String>) {
+        XML_REFERENCE.findAll(text).forEach {
+            references.add("res:${it.groupValues[1]}/${toFieldName(it.groupValues[2])}")
+        }
+        XML_CLASS.findAll(text).forEach { references.add("type:${it.groupValues[1]}") }
+        val manifestPackage = MANIFEST_PACKAGE.find(text)?.groupValues?.get(1)
+        CLASS_ATTRIBUTE.findAll(text).forEach {
+            val className = it.groupValues[1].replace('$', '.')
+            if (className.startsWith(".") && manifestPackage != null) {
+                references.add("type:$manifestPackage$className")
+            } else {
+                references.add("type:$className")
+            }
+        }
+    }
+
+    private fun isResource(file: File): Boolean {
+        return file.parentFile?.parentFile?.name == RES
+    }
+
+    /**
+     * Resource names as they appear on R, e.g. `Theme.App` becomes `Theme_App`.
+     */
+    private fun toFieldName(name: String): String {
+        return name.replace('.', '_')
+    }
+}
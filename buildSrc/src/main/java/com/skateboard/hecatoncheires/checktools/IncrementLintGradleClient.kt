@@ -1,14 +1,30 @@
 package com.skateboard.hecatoncheires.checktools
 
+import com.android.SdkConstants
 import com.android.builder.model.Variant
 import com.android.sdklib.BuildToolInfo
 import com.android.tools.lint.LintCliFlags
+import com.android.tools.lint.Warning
 import com.android.tools.lint.client.api.IssueRegistry
+import com.android.tools.lint.client.api.LintBaseline
 import com.android.tools.lint.client.api.LintRequest
+import com.android.tools.lint.detector.api.Context
+import com.android.tools.lint.detector.api.DefaultPosition
+import com.android.tools.lint.detector.api.Issue
+import com.android.tools.lint.detector.api.LintFix
+import com.android.tools.lint.detector.api.Location
+import com.android.tools.lint.detector.api.Project
+import com.android.tools.lint.detector.api.Scope
+import com.android.tools.lint.detector.api.Severity
+import com.android.tools.lint.detector.api.TextFormat
 import com.android.tools.lint.gradle.LintGradleClient
 import com.android.tools.lint.gradle.api.VariantInputs
-import com.skateboard.hecatoncheires.util.GitUtil
+import com.skateboard.hecatoncheires.cache.Finding
+import com.skateboard.hecatoncheires.cache.ResultCache
+import com.skateboard.hecatoncheires.util.ChangeSet
+import com.skateboard.hecatoncheires.util.SourceBuffer
 import java.io.File
+import java.util.*
 
 class IncrementLintGradleClient(
     version: String,
@@ -19,7 +35,10 @@ class IncrementLintGradleClient(
     variant: Variant?,
     variantInputs: VariantInputs?,
     buildToolInfo: BuildToolInfo?,
-    isAndroid: Boolean
+    isAndroid: Boolean,
+    private val changeSet: ChangeSet,
+    private val resultCache: ResultCache?,
+    private val restrictedScope: Boolean
 ) : LintGradleClient(
     version,
     issueRegistry,
@@ -32,19 +51,288 @@ class IncrementLintGradleClient(
     isAndroid
 ) {
 
+    private val analyzesResources = (changeSet.files + changeSet.dependents).any {
+        it.name == SdkConstants.ANDROID_MANIFEST_XML || it.parentFile?.parentFile?.name == SdkConstants.FD_RES
+    }
+
+    // the snapshots of a staged change set, keyed by the files they stand for
+    private val stagedFiles = if (changeSet.overlayDir == null) {
+        emptyMap()
+    } else {
+        (changeSet.files + changeSet.dependents).map { it.absoluteFile }
+            .associate { it to changeSet.toAnalysisFile(it) }
+            .filterValues { it.isFile }
+    }
+
+    // the file contents pmd and lint share when run together by incrementcheck
+    private val sourceBuffer = SourceBuffer.published(gradleProject)
+
+    // used to turn cached issue ids back into issues
+    private val replayRegistry = issueRegistry
+
+    // findings of the files actually analyzed in this run, stored once the run is over
+    private val analyzedFindings = mutableMapOf<File, MutableList<Finding>>()
+
+    // findings replayed from the cache and found in dependents, for the full report
+    private val cachedFindings = mutableMapOf<File, List<Finding>>()
+
+    private val dependentFindings = mutableMapOf<File, MutableList<Finding>>()
+
+    /**
+     * Baseline matching of this run, used instead of lint's own baseline when set.
+     */
+    var baselineMatch: IndexedBaseline.Match? = null
+
+    /**
+     * The baseline file of [baselineMatch].
+     */
+    var indexedBaselineFile: File? = null
+
+    // lint's own matching, parsed on the first issue the index misses
+    private val lintBaseline by lazy { indexedBaselineFile?.let { LintBaseline(this, it) } }
+
     override fun createLintRequest(files: MutableList<File>?): LintRequest {
         val lintRequest = super.createLintRequest(files)
-        val commitFiles = GitUtil.getCommitFiles()
-        lintRequest.getProjects()?.forEach { project ->
+        val projects = lintRequest.getProjects()
+        val analysisFiles = mutableListOf<File>()
+        changeSet.files.map { it.absoluteFile }.forEach {
+            val cached = resultCache?.get(changeSet.toAnalysisFile(it))
+            val project = projects?.firstOrNull()
+            if (project != null) {
+                baselineMatch?.analyzed(toBaselinePath(project, it))
+            }
+            if (cached != null && project != null) {
+                cachedFindings[it] = cached
+                cached.forEach { finding -> replay(project, it, finding) }
+            } else {
+                analysisFiles.add(it)
+                analyzedFindings[it] = mutableListOf()
+            }
+        }
+        // dependents are analyzed for issues the change causes in them, which their own
+        // content cannot key, so they bypass the cache
+        changeSet.dependents.map { it.absoluteFile }.filter { changeSet.toAnalysisFile(it).isFile }.forEach {
+            analysisFiles.add(it)
+            dependentFindings[it] = mutableListOf()
+            val project = projects?.firstOrNull()
+            if (project != null) {
+                baselineMatch?.analyzed(toBaselinePath(project, it))
+            }
+        }
+        if (analysisFiles.isEmpty()) {
+            // everything is cached or unchanged: an empty scope runs no detector at all
+            lintRequest.setScope(EnumSet.noneOf(Scope::class.java))
+        } else if (restrictedScope) {
+            lintRequest.setScope(getRestrictedScope(analysisFiles))
+        }
+        projects?.forEach { project ->
 
-            commitFiles.forEach {
-                project.addFile(it)
+            analysisFiles.forEach {
+                project.addFile(toLintFile(project, it))
             }
         }
         return lintRequest
     }
 
+    /**
+     * Returns the file lint analyzes for [file]. Lint parses java and kotlin sources from disk
+     * rather than through [readFile], so a staged one is handed over as its snapshot, inside an
+     * overlay of its source root that is put in front of that root: lint then resolves the
+     * staged classes from the overlay and every other class from the sources, each once. Other
+     * files keep their path and [readFile] supplies their staged content.
+     */
+    private fun toLintFile(project: Project, file: File): File {
+        val snapshot = stagedFiles[file] ?: return file
+        if (file.extension != SdkConstants.EXT_JAVA && file.extension != SdkConstants.EXT_KOTLIN) {
+            return file
+        }
+        if (!addOverlayRoot(project.javaSourceFolders, file)) {
+            addOverlayRoot(project.testSourceFolders, file)
+        }
+        return snapshot
+    }
+
+    /**
+     * Puts the overlay of the root of [roots] holding [file] in front of them, returns false
+     * when none holds it.
+     */
+    private fun addOverlayRoot(roots: MutableList<File>, file: File): Boolean {
+        val root = roots.firstOrNull { file.startsWith(it.absoluteFile) } ?: return false
+        val overlayRoot = changeSet.toAnalysisFile(root.absoluteFile)
+        try {
+            if (!roots.contains(overlayRoot)) {
+                roots.add(0, overlayRoot)
+            }
+        } catch (e: UnsupportedOperationException) {
+            // the snapshot is still parsed, only resolved next to its working tree version
+            return false
+        }
+        return true
+    }
+
+    /**
+     * Drops issues outside the changed lines before they reach the reporters, the error count
+     * and therefore the abort decision. Baselined issues are matched before, wherever they are.
+     */
+    override fun report(
+        context: Context,
+        issue: Issue,
+        severity: Severity,
+        location: Location,
+        message: String,
+        format: TextFormat,
+        fix: LintFix?
+    ) {
+        val start = location.start
+        val end = location.end
+        val absoluteFile = changeSet.toSourceFile(location.file.absoluteFile)
+        val reportedLocation = if (absoluteFile != location.file.absoluteFile) {
+            toSourceLocation(location, absoluteFile)
+        } else {
+            location
+        }
+        val findings = analyzedFindings[absoluteFile] ?: dependentFindings[absoluteFile]
+        if (findings != null) {
+            findings.add(
+                Finding(
+                    issue.id, "", severity.name,
+                    if (start != null) start.line + 1 else -1, start?.column ?: -1, start?.offset ?: -1,
+                    if (end != null) end.line + 1 else -1, end?.column ?: -1, end?.offset ?: -1,
+                    format.convertTo(message, TextFormat.RAW)
+                )
+            )
+        }
+        // baselined first: the entries of unchanged lines are still found, not counted as fixed
+        if (isBaselined(context.project, issue, reportedLocation, severity, format.convertTo(message, TextFormat.RAW))) {
+            return
+        }
+        if (!isReported(absoluteFile, start?.line ?: -1, end?.line ?: -1)) {
+            return
+        }
+        super.report(context, issue, severity, reportedLocation, message, format, fix)
+    }
+
+    /**
+     * Moves a location in a staged snapshot to the working tree file it stands for, so reports
+     * and baselines name the source file.
+     */
+    private fun toSourceLocation(location: Location, sourceFile: File): Location {
+        val sourceLocation = Location.create(sourceFile, location.start, location.end)
+        sourceLocation.message = location.message
+        sourceLocation.clientData = location.clientData
+        sourceLocation.secondary = location.secondary
+        return sourceLocation
+    }
+
+    /**
+     * Reads the staged content of files lint is given by their working tree path, see
+     * [toLintFile].
+     */
+    override fun readFile(file: File): CharSequence {
+        val analysisFile = stagedFiles[file.absoluteFile] ?: file
+        val bytes = sourceBuffer?.get(analysisFile.absolutePath) ?: return super.readFile(analysisFile)
+        return SourceBuffer.decode(bytes)
+    }
 
+    /**
+     * Without a project resource repository lint never reads the unchanged resource folders.
+     * The restricted scope only drops it when no resource or manifest is analyzed, since
+     * detectors of those need the resources of the whole project.
+     */
+    override fun supportsProjectResources(): Boolean {
+        return (!restrictedScope || analyzesResources) && super.supportsProjectResources()
+    }
 
+    /**
+     * Stores the findings of every file this run analyzed, including the clean ones.
+     */
+    fun storeResults() {
+        val cache = resultCache ?: return
+        analyzedFindings.forEach { (file, findings) ->
+            cache.put(changeSet.toAnalysisFile(file), findings)
+        }
+    }
+
+    /**
+     * Returns the unfiltered findings of every file this run checked, keyed by source file.
+     */
+    fun getFileFindings(): Map<File, List<Finding>> {
+        val fileFindings = mutableMapOf<File, List<Finding>>()
+        listOf(cachedFindings, analyzedFindings, dependentFindings).forEach { findings ->
+            fileFindings.putAll(findings)
+        }
+        return fileFindings
+    }
+
+    private fun replay(project: Project, file: File, finding: Finding) {
+        val issue = replayRegistry.getIssue(finding.rule) ?: return
+        val severity = Severity.valueOf(finding.severity)
+        val start = DefaultPosition(finding.beginLine - 1, finding.beginColumn, finding.beginOffset)
+        val end = DefaultPosition(finding.endLine - 1, finding.endColumn, finding.endOffset)
+        val location = if (finding.beginLine > 0) Location.create(file, start, end) else Location.create(file)
+        if (isBaselined(project, issue, location, severity, finding.message)) {
+            return
+        }
+        if (!isReported(file, finding.beginLine - 1, finding.endLine - 1)) {
+            return
+        }
+        val warning = Warning(issue, finding.message, severity, project)
+        warning.location = location
+        warning.file = file
+        warning.path = getDisplayPath(project, file)
+        if (finding.beginLine > 0) {
+            warning.line = finding.beginLine - 1
+            warning.offset = finding.beginOffset
+            warning.endOffset = finding.endOffset
+            warning.fileContents = readFile(file)
+        }
+        warnings.add(warning)
+        if (severity.isError) {
+            errorCount++
+        } else if (severity == Severity.WARNING) {
+            warningCount++
+        }
+    }
+
+    /**
+     * Returns the scopes of [files] only. Lint then neither walks the source, resource and class
+     * folders nor runs the project-wide passes an inferred scope would trigger; unchanged
+     * sources are still resolved lazily from the source roots when type resolution needs them.
+     */
+    private fun getRestrictedScope(files: List<File>): EnumSet<Scope> {
+        val scope = PrunedIssueRegistry.inferScope(files)
+        if (scope.contains(Scope.JAVA_FILE)) {
+            scope.add(Scope.TEST_SOURCES)
+        }
+        return scope
+    }
+
+    private fun isBaselined(
+        project: Project,
+        issue: Issue,
+        location: Location,
+        severity: Severity,
+        rawMessage: String
+    ): Boolean {
+        val match = baselineMatch ?: return false
+        return match.findAndMark(issue.id, toBaselinePath(project, location.file), rawMessage) {
+            lintBaseline?.findAndMark(issue, location, rawMessage, severity, project) ?: false
+        }
+    }
+
+    private fun toBaselinePath(project: Project, file: File): String {
+        return IndexedBaseline.toPath(project.dir, changeSet.toSourceFile(file.absoluteFile))
+    }
+
+    /**
+     * Whether an issue spanning the 0-based [startLine]..[endLine] is reported, like pmd
+     * violations by their whole span, so an issue starting above a changed hunk is kept.
+     */
+    private fun isReported(file: File, startLine: Int, endLine: Int): Boolean {
+        if (startLine < 0) {
+            return changeSet.isReported(file, -1)
+        }
+        return changeSet.isReported(file, startLine + 1, Math.max(startLine, endLine) + 1)
+    }
 
-}
\ No newline at end of file
+}
@@ -30,15 +30,27 @@ import com.android.tools.lint.gradle.SyncOptions;
 import com.android.tools.lint.gradle.api.LintExecutionRequest;
 import com.android.tools.lint.gradle.api.VariantInputs;
 import com.android.utils.Pair;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.skateboard.hecatoncheires.Constants;
+import com.skateboard.hecatoncheires.cache.Finding;
+import com.skateboard.hecatoncheires.cache.ResultCache;
+import com.skateboard.hecatoncheires.extension.HecatoncheiresExtension;
+import com.skateboard.hecatoncheires.util.ChangeSet;
+import com.skateboard.hecatoncheires.util.FullReport;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.gradle.api.GradleException;
@@ -59,34 +71,50 @@ import org.gradle.tooling.provider.model.ToolingModelBuilderRegistry;
 @SuppressWarnings("unused") // Used vi reflection from LintExecutionRequest
 public class IncrementLintGradleExecution {
     private final LintExecutionRequest descriptor;
+    private final ChangeSet changeSet;
+    private final HecatoncheiresExtension options;
+    private final Map<File, Set<Finding>> fullReportFindings = new HashMap<>();
+    private final List<IndexedBaseline.Match> baselineMatches = new ArrayList<>();
+    private IndexedBaseline indexedBaseline;
+    // the model of the android project being linted, null for other projects
+    @Nullable private AndroidProject modelProject;
 
     public IncrementLintGradleExecution(LintExecutionRequest descriptor) {
         this.descriptor = descriptor;
+        ChangeSet published = ChangeSet.published(descriptor.getProject());
+        this.changeSet = published != null
+                ? published : ChangeSet.empty(descriptor.getProject().getRootDir());
+        this.options = HecatoncheiresExtension.published(descriptor.getProject());
     }
 
     // Along with the constructor, the only public access into this class,
     // intended to be used via reflection. Everything else should be private:
     @SuppressWarnings("unused") // Used via reflection from ReflectiveLintRunner
     public void analyze() throws IOException {
-        ToolingModelBuilderRegistry toolingRegistry = descriptor.getToolingRegistry();
-        if (toolingRegistry != null) {
-            AndroidProject modelProject = createAndroidProject(descriptor.getProject(),
-                    toolingRegistry);
-            String variantName = descriptor.getVariantName();
-
-            if (variantName != null) {
-                for (Variant variant : modelProject.getVariants()) {
-                    if (variant.getName().equals(variantName)) {
-                        lintSingleVariant(variant);
-                        return;
+        try {
+            ToolingModelBuilderRegistry toolingRegistry = descriptor.getToolingRegistry();
+            if (toolingRegistry != null) {
+                AndroidProject modelProject = createAndroidProject(descriptor.getProject(),
+                        toolingRegistry);
+                this.modelProject = modelProject;
+                String variantName = descriptor.getVariantName();
+
+                if (variantName != null) {
+                    for (Variant variant : modelProject.getVariants()) {
+                        if (variant.getName().equals(variantName)) {
+                            lintSingleVariant(variant);
+                            return;
+                        }
                     }
+                } else { // All variants
+                    lintAllVariants(modelProject);
                 }
-            } else { // All variants
-                lintAllVariants(modelProject);
+            } else {
+                // Not applying the Android Gradle plugin
+                lintNonAndroid();
             }
-        } else {
-            // Not applying the Android Gradle plugin
-            lintNonAndroid();
+        } finally {
+            writeFullReport();
         }
     }
 
@@ -197,9 +225,26 @@ public class IncrementLintGradleExecution {
             @Nullable Variant variant,
             @NonNull VariantInputs variantInputs,
             boolean report, boolean isAndroid) {
+        return runLint(variant, variantInputs, report, isAndroid, changeSet);
+    }
+
+    /**
+     * Runs lint on the files of the given change set of the given variant and returns the set
+     * of warnings
+     */
+    private Pair<List<Warning>, LintBaseline> runLint(
+            @Nullable Variant variant,
+            @NonNull VariantInputs variantInputs,
+            boolean report, boolean isAndroid,
+            @NonNull ChangeSet changeSet) {
         IssueRegistry registry = createIssueRegistry(isAndroid);
+        if (options.getPruneRegistry()) {
+            List<File> files = new ArrayList<>(changeSet.getFiles());
+            files.addAll(changeSet.getDependents());
+            registry = new PrunedIssueRegistry(registry, PrunedIssueRegistry.inferScope(files));
+        }
         LintCliFlags flags = new LintCliFlags();
-        LintGradleClient client =
+        IncrementLintGradleClient client =
                 new IncrementLintGradleClient(
                         descriptor.getGradlePluginVersion(),
                         registry,
@@ -209,7 +254,10 @@ public class IncrementLintGradleExecution {
                         variant,
                         variantInputs,
                         descriptor.getBuildTools(),
-                        isAndroid);
+                        isAndroid,
+                        changeSet,
+                        createResultCache(variant, variantInputs, registry),
+                        options.getRestrictedScope());
         boolean fatalOnly = descriptor.isFatalOnly();
         if (fatalOnly) {
             flags.setFatalOnly(true);
@@ -243,17 +291,41 @@ public class IncrementLintGradleExecution {
         if (!report || fatalOnly) {
             flags.setQuiet(true);
         }
+        if (options.getRestrictedScope()) {
+            // library modules are not part of the change set
+            flags.setCheckDependencies(false);
+        }
         flags.setWriteBaselineIfMissing(report && !fatalOnly);
+        IndexedBaseline baseline = getIndexedBaseline(flags.getBaselineFile());
+        if (baseline != null) {
+            // matched by the client instead of lint's own baseline
+            flags.setBaselineFile(null);
+            client.setBaselineMatch(baseline.newMatch());
+            client.setIndexedBaselineFile(baseline.getXmlFile());
+        }
 
         Pair<List<Warning>, LintBaseline> warnings;
         try {
             warnings = client.run(registry);
+            client.storeResults();
+            if (options.getFullReport()) {
+                // variants add up: a finding of any variant belongs to the file
+                client.getFileFindings().forEach((file, findings) -> fullReportFindings
+                        .computeIfAbsent(file, key -> new LinkedHashSet<>())
+                        .addAll(findings));
+            }
             if(!client.haveErrors()){
                 System.out.println("lint no issues found");
             }
         } catch (IOException e) {
             throw new GradleException("Invalid arguments.", e);
         }
+        if (baseline != null) {
+            baselineMatches.add(client.getBaselineMatch());
+            if (report) {
+                finishIndexedBaseline(baseline, warnings.getFirst());
+            }
+        }
 
         if (report && client.haveErrors() && flags.isSetExitCode()) {
             abort(client, warnings.getFirst(), isAndroid);
@@ -287,6 +359,163 @@ public class IncrementLintGradleExecution {
         }
     }
 
+    /**
+     * Returns the on-disk result cache of the given variant, or null when it is turned off.
+     * Cached findings are only valid for the same lint version and checks, issues, lint options,
+     * baseline, sdk versions, resolved dependencies and merged manifest, so all of them are part
+     * of the key next to the file content. Without a model telling the dependencies nothing is
+     * cached.
+     */
+    @Nullable
+    private ResultCache createResultCache(
+            @Nullable Variant variant,
+            @NonNull VariantInputs variantInputs,
+            @NonNull IssueRegistry registry) {
+        if (!options.getResultCache()) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(descriptor.getGradlePluginVersion()).append('\n');
+        key.append(variant != null ? variant.getName() : "").append('\n');
+        key.append(isFatalOnly()).append('\n');
+        if (variant != null) {
+            try {
+                key.append(modelProject != null ? modelProject.getCompileTarget() : "").append('\n');
+                key.append(VariantSourceSets.getDependencyKey(variant)).append('\n');
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+        key.append(hashFile(variantInputs.getMergedManifest())).append('\n');
+        // custom checks: the lint jars of the dependencies and the lint class path itself
+        for (File ruleJar : new TreeSet<>(variantInputs.getRuleJars().getFiles())) {
+            key.append(hashFile(ruleJar)).append(',');
+        }
+        key.append('\n').append(getLintClassPathKey()).append('\n');
+        for (Issue issue : registry.getIssues()) {
+            key.append(issue.getId()).append(':').append(issue.getDefaultSeverity()).append(',');
+        }
+        key.append('\n');
+        LintOptions lintOptions = getLintOptions();
+        if (lintOptions != null) {
+            key.append(new TreeSet<>(lintOptions.getDisable())).append('\n');
+            key.append(new TreeSet<>(lintOptions.getEnable())).append('\n');
+            Set<String> check = lintOptions.getCheck();
+            key.append(check != null ? new TreeSet<>(check) : "").append('\n');
+            Map<String, Integer> severityOverrides = lintOptions.getSeverityOverrides();
+            key.append(severityOverrides != null ? new TreeMap<>(severityOverrides) : "").append('\n');
+            key.append(lintOptions.isCheckAllWarnings()).append(lintOptions.isIgnoreWarnings())
+                    .append(lintOptions.isWarningsAsErrors()).append(lintOptions.isCheckTestSources())
+                    .append('\n');
+            key.append(hashFile(lintOptions.getLintConfig())).append('\n');
+            key.append(hashFile(lintOptions.getBaselineFile())).append('\n');
+        }
+        File cacheDir = new File(descriptor.getProject().getBuildDir(),
+                Constants.Companion.getCACHE_DIR() + File.separator + "lint");
+        return new ResultCache(cacheDir, ResultCache.hash(key.toString()));
+    }
+
+    /**
+     * Patches the findings of the files checked by this execution into the module's full
+     * lint report and renders it again.
+     */
+    private void writeFullReport() {
+        if (fullReportFindings.isEmpty()) {
+            return;
+        }
+        Project project = descriptor.getProject();
+        FullReport fullReport = FullReport.of(project.getBuildDir(), project.getProjectDir(),
+                Constants.Companion.getLINT_RESULT());
+        Map<File, List<Finding>> findings = new HashMap<>();
+        fullReportFindings.forEach((file, fileFindings) ->
+                findings.put(file, new ArrayList<>(fileFindings)));
+        fullReport.update(findings);
+        fullReport.render(Constants.Companion.getLINT_RESULT());
+    }
+
+    /**
+     * Returns the indexed form of the given baseline, or null when indexedBaseline is off or
+     * the baseline does not exist yet (lint creates it then). Parsed once per execution.
+     */
+    @Nullable
+    private IndexedBaseline getIndexedBaseline(@Nullable File baselineFile) {
+        if (!options.getIndexedBaseline() || baselineFile == null || !baselineFile.isFile()) {
+            return null;
+        }
+        if (indexedBaseline == null || !indexedBaseline.getXmlFile().equals(baselineFile)) {
+            File cacheFile = new File(descriptor.getProject().getBuildDir(),
+                    Constants.Companion.getCACHE_DIR() + File.separator + "baseline"
+                            + File.separator + ResultCache.hash(baselineFile.getAbsolutePath()));
+            indexedBaseline = IndexedBaseline.load(baselineFile, cacheFile);
+        }
+        return indexedBaseline;
+    }
+
+    /**
+     * Prints the baseline summary lint prints for its own baseline, and rewrites the entries
+     * of the analyzed files when updateBaseline is on.
+     */
+    private void finishIndexedBaseline(
+            @NonNull IndexedBaseline baseline, @NonNull List<Warning> warnings) {
+        IndexedBaseline.Counts counts = baseline.count(baselineMatches);
+        if (counts.getFoundErrors() > 0 || counts.getFoundWarnings() > 0) {
+            System.out.println(
+                    String.format(
+                            "%1$s were filtered out because "
+                                    + "they were listed in the baseline file, %2$s\n",
+                            LintUtils.describeCounts(
+                                    counts.getFoundErrors(), counts.getFoundWarnings(), false, true),
+                            baseline.getXmlFile()));
+        }
+        if (counts.getFixed() > 0) {
+            System.out.println(
+                    String.format(Locale.US,
+                            "%1$d errors/warnings were listed in the "
+                                    + "baseline file (%2$s) but not found in the project; perhaps they have "
+                                    + "been fixed?\n",
+                            counts.getFixed(), baseline.getXmlFile()));
+        }
+        if (options.getUpdateBaseline()) {
+            try {
+                baseline.rewrite(baselineMatches, warnings,
+                        descriptor.getProject().getProjectDir(), changeSet);
+                System.out.println("Updated baseline file " + baseline.getXmlFile());
+            } catch (IOException e) {
+                descriptor.warn("Could not update baseline file {}: {}",
+                        baseline.getXmlFile().getPath(), String.valueOf(e));
+            }
+        }
+    }
+
+    /**
+     * Returns the jar names, which carry their versions, this class was loaded from.
+     */
+    @NonNull
+    private static String getLintClassPathKey() {
+        ClassLoader loader = IncrementLintGradleExecution.class.getClassLoader();
+        if (!(loader instanceof URLClassLoader)) {
+            return "";
+        }
+        Set<String> names = new TreeSet<>();
+        for (URL url : ((URLClassLoader) loader).getURLs()) {
+            String path = url.getPath();
+            names.add(path.substring(path.lastIndexOf('/') + 1));
+        }
+        return names.toString();
+    }
+
+    @NonNull
+    private static String hashFile(@Nullable File file) {
+        if (file == null || !file.isFile()) {
+            return "";
+        }
+        try {
+            return ResultCache.hash(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
     protected static AndroidProject createAndroidProject(@NonNull Project gradleProject,
                                                          @NonNull ToolingModelBuilderRegistry toolingRegistry) {
         String modelName = AndroidProject.class.getName();
@@ -370,6 +599,56 @@ public class IncrementLintGradleExecution {
         }
     }
 
+    /**
+     * Runs lint on one variant of {@link #lintAllVariants} and adds its results to the given
+     * collections. Warnings the merger sees for the first time are passed to {@code streamed}.
+     */
+    private void lintVariant(
+            @NonNull Variant variant,
+            @Nullable VariantSourceSets sourceSets,
+            @Nullable WarningMerger merger,
+            @Nullable Consumer<Warning> streamed,
+            @NonNull Map<Variant, List<Warning>> warningMap,
+            @NonNull List<LintBaseline> baselines) {
+        VariantInputs variantInputs = descriptor.getVariantInputs(variant.getName());
+        if (variantInputs == null) {
+            return;
+        }
+        ChangeSet variantChangeSet =
+                sourceSets != null ? sourceSets.getChangeSet(variant) : changeSet;
+        if (sourceSets != null && variantChangeSet.getFiles().isEmpty()
+                && variantChangeSet.getDependents().isEmpty()) {
+            // everything this variant contains is analyzed by another variant
+            addWarnings(variant, new ArrayList<>(), sourceSets, merger, streamed, warningMap);
+            return;
+        }
+        Pair<List<Warning>, LintBaseline> pair =
+                runLint(variant, variantInputs, false, true, variantChangeSet);
+        addWarnings(variant, pair.getFirst(), sourceSets, merger, streamed, warningMap);
+        LintBaseline baseline = pair.getSecond();
+        if (baseline != null) {
+            baselines.add(baseline);
+        }
+    }
+
+    private static void addWarnings(
+            @NonNull Variant variant,
+            @NonNull List<Warning> warnings,
+            @Nullable VariantSourceSets sourceSets,
+            @Nullable WarningMerger merger,
+            @Nullable Consumer<Warning> streamed,
+            @NonNull Map<Variant, List<Warning>> warningMap) {
+        if (merger != null) {
+            // merged right away, the variant's own list is dropped
+            List<Warning> added = merger.add(variant, warnings, sourceSets);
+            if (streamed != null) {
+                added.forEach(streamed);
+            }
+        } else {
+            warningMap.put(variant, warnings);
+        }
+    }
+
     /**
      * Runs lint individually on all the variants, and then compares the results across variants and
      * reports these
@@ -380,25 +659,48 @@ public class IncrementLintGradleExecution {
         // each variant run go and inspect the inactive variant sources
         UnusedResourceDetector.sIncludeInactiveReferences = false;
 
-        Map<Variant, List<Warning>> warningMap = Maps.newHashMap();
+        Map<Variant, List<Warning>> warningMap = new HashMap<>();
         List<LintBaseline> baselines = Lists.newArrayList();
+        List<Variant> variants = Lists.newArrayList();
         for (Variant variant : modelProject.getVariants()) {
             // we are not running lint on all the variants, so skip the ones where we don't have
             // a variant inputs (see TaskManager::isLintVariant)
-            final VariantInputs variantInputs = descriptor.getVariantInputs(variant.getName());
-            if (variantInputs != null) {
-                Pair<List<Warning>, LintBaseline> pair =
-                        runLint(variant, variantInputs, false, true);
-                List<Warning> warnings = pair.getFirst();
-                warningMap.put(variant, warnings);
-                LintBaseline baseline = pair.getSecond();
-                if (baseline != null) {
-                    baselines.add(baseline);
-                }
+            if (descriptor.getVariantInputs(variant.getName()) != null) {
+                variants.add(variant);
             }
         }
-
+        VariantSourceSets sourceSets = options.getShareSourceSets()
+                ? new VariantSourceSets(modelProject, variants, changeSet) : null;
         final LintOptions lintOptions = getLintOptions();
+        // streamed reports need the merger to write every distinct warning once
+        StreamingReportWriter reportWriter = null;
+        if (options.getStreamingReports() && !modelProject.getVariants().isEmpty()) {
+            reportWriter = StreamingReportWriter.start(lintOptions, descriptor.getProject(),
+                    getReportsDir(), isFatalOnly());
+        }
+        WarningMerger merger = options.getCompactMerge() || reportWriter != null
+                ? new WarningMerger() : null;
+        int[] streamedCounts = new int[2];
+        StreamingReportWriter writer = reportWriter;
+        Consumer<Warning> streamed = writer == null ? null : warning -> {
+            countWarning(warning, streamedCounts);
+            writer.add(warning);
+        };
+        try {
+            // one after the other: the variants share the IntelliJ core environment and the static
+            // state of lint and its detectors, which lint does not guard against concurrent drivers
+            for (Variant variant : variants) {
+                lintVariant(variant, sourceSets, merger, streamed, warningMap, baselines);
+            }
+        } catch (RuntimeException e) {
+            if (reportWriter != null) {
+                reportWriter.abandon();
+            }
+            throw e;
+        }
+        if (sourceSets != null && merger == null) {
+            sourceSets.attribute(warningMap);
+        }
 
         // Compute error matrix
         boolean quiet = false;
@@ -406,27 +708,39 @@ public class IncrementLintGradleExecution {
             quiet = lintOptions.isQuiet();
         }
 
-        for (Map.Entry<Variant, List<Warning>> entry : warningMap.entrySet()) {
+        Map<Variant, Integer> issueCounts = new HashMap<>();
+        if (merger != null) {
+            issueCounts.putAll(merger.getCounts());
+        } else {
+            for (Map.Entry<Variant, List<Warning>> entry : warningMap.entrySet()) {
+                issueCounts.put(entry.getKey(), entry.getValue().size());
+            }
+        }
+        for (Map.Entry<Variant, Integer> entry : issueCounts.entrySet()) {
             Variant variant = entry.getKey();
-            List<Warning> warnings = entry.getValue();
             if (!isFatalOnly() && !quiet) {
                 descriptor.warn(
                         "Ran lint on variant {}: {} issues found",
                         variant.getName(),
-                        warnings.size());
+                        entry.getValue());
             }
         }
 
-        List<Warning> mergedWarnings = LintGradleClient.merge(warningMap, modelProject);
-        int errorCount = 0;
-        int warningCount = 0;
-        for (Warning warning : mergedWarnings) {
-            if (warning.severity == Severity.ERROR || warning.severity == Severity.FATAL) {
-                errorCount++;
-            } else if (warning.severity == Severity.WARNING) {
-                warningCount++;
+        // streamed reports are written already, the sorted list is only built when needed
+        Supplier<List<Warning>> mergedWarnings = Suppliers.memoize(() -> merger != null
+                ? merger.merge(modelProject)
+                : LintGradleClient.merge(warningMap, modelProject));
+        int[] counts = streamedCounts;
+        if (reportWriter == null) {
+            counts = new int[2];
+            for (Warning warning : mergedWarnings.get()) {
+                countWarning(warning, counts);
             }
+            // the per variant lists are not needed anymore
+            warningMap.clear();
         }
+        int errorCount = counts[0];
+        int warningCount = counts[1];
 
         // We pick the first variant to generate the full report and don't generate if we don't
         // have any variants.
@@ -448,7 +762,10 @@ public class IncrementLintGradleExecution {
                     variant,
                     variantInputs,
                     descriptor.getBuildTools(),
-                    true);
+                    true,
+                    changeSet,
+                    null,
+                    false);
             syncOptions(
                     lintOptions,
                     client,
@@ -471,7 +788,19 @@ public class IncrementLintGradleExecution {
             int baselineErrorCount = 0;
             int baselineWarningCount = 0;
             int fixedCount = 0;
-            if (!baselines.isEmpty()) {
+            IndexedBaseline indexedBaseline = getIndexedBaseline(flags.getBaselineFile());
+            if (indexedBaseline != null && !baselineMatches.isEmpty()) {
+                // the indexed baseline knows the entries each variant found: merge them exactly
+                IndexedBaseline.Counts counts = indexedBaseline.count(baselineMatches);
+                baselineErrorCount = counts.getFoundErrors();
+                baselineWarningCount = counts.getFoundWarnings();
+                fixedCount = counts.getFixed();
+                if (options.getUpdateBaseline()) {
+                    indexedBaseline.rewrite(baselineMatches, mergedWarnings.get(),
+                            descriptor.getProject().getProjectDir(), changeSet);
+                    System.out.println("Updated baseline file " + indexedBaseline.getXmlFile());
+                }
+            } else if (!baselines.isEmpty()) {
                 // Figure out the actual overlap; later I could stash these into temporary
                 // objects to compare
                 // For now just combine them in a dumb way
@@ -492,68 +821,94 @@ public class IncrementLintGradleExecution {
                             baselineWarningCount,
                             fixedCount);
 
-            for (Reporter reporter : flags.getReporters()) {
-                reporter.write(stats, mergedWarnings);
-            }
-
-            File baselineFile = flags.getBaselineFile();
-            if (baselineFile != null && !baselineFile.exists()) {
-                File dir = baselineFile.getParentFile();
-                boolean ok = true;
-                if (!dir.isDirectory()) {
-                    ok = dir.mkdirs();
+            try {
+                // streamed reports are rendered in the background meanwhile
+                if (reportWriter == null) {
+                    for (Reporter reporter : flags.getReporters()) {
+                        reporter.write(stats, mergedWarnings.get());
+                    }
                 }
-                if (!ok) {
-                    System.err.println("Couldn't create baseline folder " + dir);
-                } else {
-                    Reporter reporter = Reporter.createXmlReporter(client, baselineFile, true);
-                    reporter.write(stats, mergedWarnings);
-                    System.err.println("Created baseline file " + baselineFile);
-                    if (LintGradleClient.continueAfterBaseLineCreated()) {
-                        return;
+
+                File baselineFile = flags.getBaselineFile();
+                if (baselineFile != null && !baselineFile.exists()) {
+                    File dir = baselineFile.getParentFile();
+                    boolean ok = true;
+                    if (!dir.isDirectory()) {
+                        ok = dir.mkdirs();
+                    }
+                    if (!ok) {
+                        System.err.println("Couldn't create baseline folder " + dir);
+                    } else {
+                        Reporter reporter = Reporter.createXmlReporter(client, baselineFile, true);
+                        reporter.write(stats, mergedWarnings.get());
+                        System.err.println("Created baseline file " + baselineFile);
+                        if (LintGradleClient.continueAfterBaseLineCreated()) {
+                            return;
+                        }
+                        System.err.println("(Also breaking build in case this was not intentional.)");
+                        String message =
+                                ""
+                                        + "Created baseline file "
+                                        + baselineFile
+                                        + "\n"
+                                        + "\n"
+                                        + "Also breaking the build in case this was not intentional. If you\n"
+                                        + "deliberately created the baseline file, re-run the build and this\n"
+                                        + "time it should succeed without warnings.\n"
+                                        + "\n"
+                                        + "If not, investigate the baseline path in the lintOptions config\n"
+                                        + "or verify that the baseline file has been checked into version\n"
+                                        + "control.\n"
+                                        + "\n"
+                                        + "You can set the system property lint.baselines.continue=true\n"
+                                        + "if you want to create many missing baselines in one go.";
+                        throw new GradleException(message);
                     }
-                    System.err.println("(Also breaking build in case this was not intentional.)");
-                    String message =
-                            ""
-                                    + "Created baseline file "
-                                    + baselineFile
-                                    + "\n"
-                                    + "\n"
-                                    + "Also breaking the build in case this was not intentional. If you\n"
-                                    + "deliberately created the baseline file, re-run the build and this\n"
-                                    + "time it should succeed without warnings.\n"
-                                    + "\n"
-                                    + "If not, investigate the baseline path in the lintOptions config\n"
-                                    + "or verify that the baseline file has been checked into version\n"
-                                    + "control.\n"
-                                    + "\n"
-                                    + "You can set the system property lint.baselines.continue=true\n"
-                                    + "if you want to create many missing baselines in one go.";
-                    throw new GradleException(message);
                 }
-            }
 
-            if (baselineErrorCount > 0 || baselineWarningCount > 0) {
-                System.out.println(
-                        String.format(
-                                "%1$s were filtered out because "
-                                        + "they were listed in the baseline file, %2$s\n",
-                                LintUtils.describeCounts(
-                                        baselineErrorCount, baselineWarningCount, false, true),
-                                baselineFile));
-            }
-            if (fixedCount > 0) {
-                System.out.println(
-                        String.format(Locale.US,
-                                "%1$d errors/warnings were listed in the "
-                                        + "baseline file (%2$s) but not found in the project; perhaps they have "
-                                        + "been fixed?\n",
-                                fixedCount, baselineFile));
-            }
+                if (baselineErrorCount > 0 || baselineWarningCount > 0) {
+                    System.out.println(
+                            String.format(
+                                    "%1$s were filtered out because "
+                                            + "they were listed in the baseline file, %2$s\n",
+                                    LintUtils.describeCounts(
+                                            baselineErrorCount, baselineWarningCount, false, true),
+                                    baselineFile));
+                }
+                if (fixedCount > 0) {
+                    System.out.println(
+                            String.format(Locale.US,
+                                    "%1$d errors/warnings were listed in the "
+                                            + "baseline file (%2$s) but not found in the project; perhaps they have "
+                                            + "been fixed?\n",
+                                    fixedCount, baselineFile));
+                }
 
-            if (flags.isSetExitCode() && errorCount > 0) {
-                abort(client, mergedWarnings, true);
+                if (flags.isSetExitCode() && errorCount > 0) {
+                    abort(client, mergedWarnings.get(), true);
+                }
+            } finally {
+                // the outcome is decided by now; a report failure must not replace it
+                if (reportWriter != null) {
+                    finishReports(reportWriter, stats);
+                }
             }
         }
     }
+
+    private void finishReports(@NonNull StreamingReportWriter reportWriter, @NonNull Reporter.Stats stats) {
+        try {
+            reportWriter.finish(stats);
+        } catch (RuntimeException e) {
+            descriptor.warn("Could not write the lint reports: {}", String.valueOf(e.getCause()));
+        }
+    }
+
+    private static void countWarning(@NonNull Warning warning, @NonNull int[] counts) {
+        if (warning.severity == Severity.ERROR || warning.severity == Severity.FATAL) {
+            counts[0]++;
+        } else if (warning.severity == Severity.WARNING) {
+            counts[1]++;
+        }
+    }
 }
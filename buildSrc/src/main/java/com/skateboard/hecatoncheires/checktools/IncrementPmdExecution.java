@@ -0,0 +1,164 @@
+package com.skateboard.hecatoncheires.checktools;
+
+import net.sourceforge.pmd.PMDConfiguration;
+import net.sourceforge.pmd.PMDException;
+import net.sourceforge.pmd.Report;
+import net.sourceforge.pmd.RuleContext;
+import net.sourceforge.pmd.RulePriority;
+import net.sourceforge.pmd.RuleSetFactory;
+import net.sourceforge.pmd.RuleSetNotFoundException;
+import net.sourceforge.pmd.RuleSets;
+import net.sourceforge.pmd.RuleViolation;
+import net.sourceforge.pmd.RulesetsFactoryUtils;
+import net.sourceforge.pmd.SourceCodeProcessor;
+import net.sourceforge.pmd.lang.Language;
+import net.sourceforge.pmd.lang.LanguageRegistry;
+import net.sourceforge.pmd.lang.LanguageVersion;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs pmd on a list of files. This class is loaded by the pmd class loader of
+ * {@link IncrementPmdRunner} and so must only use pmd and jdk classes.
+ *
+ * Parsing the rule sets and instantiating their rules costs the same for one file as for a
+ * thousand. The parsed rule sets are therefore pooled by a key of the rule set contents, and a
+ * check borrows one per thread instead of loading them again. The pool lives as long as the
+ * pmd class loader, i.e. as long as the daemon keeps the same pmd class path.
+ */
+public class IncrementPmdExecution {
+    private static final int MAX_POOLED_KEYS = 4;
+
+    // rule set key -> idle parsed rule sets; rules keep state while applied, so one per thread
+    private static final Map<String, Deque<RuleSets>> POOL =
+            new LinkedHashMap<String, Deque<RuleSets>>(MAX_POOLED_KEYS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Deque<RuleSets>> eldest) {
+                    return size() > MAX_POOLED_KEYS;
+                }
+            };
+
+    private final PMDConfiguration configuration = new PMDConfiguration();
+    private final String ruleSetKey;
+
+    /**
+     * @param ruleSets the comma separated rule set names and paths
+     * @param ruleSetKey identifies the contents of the rule sets, see {@link #POOL}
+     */
+    public IncrementPmdExecution(
+            String ruleSets,
+            String ruleSetKey,
+            int minimumPriority,
+            String targetJdk,
+            String auxClassPath) throws IOException {
+        this.ruleSetKey = ruleSetKey;
+        configuration.setRuleSets(ruleSets);
+        configuration.setMinimumPriority(RulePriority.valueOf(minimumPriority));
+        if (targetJdk != null) {
+            Language java = LanguageRegistry.getLanguage("Java");
+            LanguageVersion version = java != null ? java.getVersion(targetJdk) : null;
+            if (version != null) {
+                configuration.setDefaultLanguageVersion(version);
+            }
+        }
+        if (auxClassPath != null && !auxClassPath.isEmpty()) {
+            configuration.prependClasspath(auxClassPath);
+        }
+    }
+
+    /**
+     * Analyzes the files on up to the given number of threads and returns the violations as
+     * rows of file path, begin line, end line, rule, rule set, priority and message. Files found
+     * in {@code sources} (by absolute path) are analyzed from there instead of being read again.
+     * A file pmd cannot read or parse fails the analysis with an {@link IOException}, it never
+     * counts as a file without violations.
+     */
+    public List<Object[]> analyze(List<File> files, int threads, Map<String, byte[]> sources)
+            throws Exception {
+        int threadCount = Math.max(1, Math.min(threads, files.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            ConcurrentLinkedQueue<File> queue = new ConcurrentLinkedQueue<>(files);
+            List<Future<List<Object[]>>> futures = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(() -> analyzeQueue(queue, sources)));
+            }
+            List<Object[]> violations = new ArrayList<>();
+            for (Future<List<Object[]>> future : futures) {
+                try {
+                    violations.addAll(future.get());
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            return violations;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Object[]> analyzeQueue(Queue<File> queue, Map<String, byte[]> sources)
+            throws RuleSetNotFoundException, IOException {
+        RuleSets ruleSets = borrow();
+        List<Object[]> violations = new ArrayList<>();
+        SourceCodeProcessor processor = new SourceCodeProcessor(configuration);
+        RuleContext context = new RuleContext();
+        ruleSets.start(context);
+        try {
+            File file;
+            while ((file = queue.poll()) != null) {
+                Report report = new Report();
+                context.setReport(report);
+                context.setSourceCodeFile(file);
+                context.setSourceCodeFilename(file.getAbsolutePath());
+                // picked per file, java and velocity templates are checked together
+                context.setLanguageVersion(null);
+                byte[] source = sources != null ? sources.get(file.getAbsolutePath()) : null;
+                try (InputStream input = source != null
+                        ? new ByteArrayInputStream(source)
+                        : new BufferedInputStream(new FileInputStream(file))) {
+                    processor.processSourceCode(input, ruleSets, context);
+                } catch (PMDException e) {
+                    // a jdk type, the caller has no pmd classes
+                    throw new IOException("Pmd could not process " + file + ": " + e.getMessage(), e);
+                }
+                Iterator<RuleViolation> iterator = report.iterator();
+                while (iterator.hasNext()) {
+                    RuleViolation violation = iterator.next();
+                    violations.add(new Object[] {
+                            file.getAbsolutePath(),
+                            violation.getBeginLine(),
+                            violation.getEndLine(),
+                            violation.getRule().getName(),
+                            violation.getRule().getRuleSetName(),
+                            violation.getRule().getPriority().getPriority(),
+                            violation.getDescription()
+                    });
+                }
+            }
+        } finally {
+            ruleSets.end(context);
+            release(ruleSets);
+        }
+        return violations;
+    }
+
+    private RuleSets borrow() throws RuleSetNotFoundException {
+        synchronized (POOL) {
+            Deque<RuleSets> idle = POOL.get(ruleSetKey);
+            if (idle != null && !idle.isEmpty()) {
+                return idle.pop();
+            }
+        }
+        RuleSetFactory factory = RulesetsFactoryUtils.getRulesetFactory(configuration);
+        return factory.createRuleSets(configuration.getRuleSets());
+    }
+
+    private void release(RuleSets ruleSets) {
+        synchronized (POOL) {
+            POOL.computeIfAbsent(ruleSetKey, key -> new ArrayDeque<>()).push(ruleSets);
+        }
+    }
+}
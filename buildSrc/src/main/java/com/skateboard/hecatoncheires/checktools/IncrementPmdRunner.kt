@@ -0,0 +1,124 @@
+package com.skateboard.hecatoncheires.checktools
+
+import com.skateboard.hecatoncheires.util.PmdViolation
+import java.io.File
+import java.lang.reflect.InvocationTargetException
+import java.net.URLClassLoader
+
+/**
+ * Runs pmd inside the build process instead of through the ant task of the gradle `Pmd` task,
+ * which analyzes one file after the other. The files are spread over several threads by
+ * [IncrementPmdExecution].
+ *
+ * Pmd is loaded from the pmd class path, so the pmd and p3c versions configured for the
+ * project are the ones used; the execution class comes from this plugin's own jar. The class
+ * loader is kept while the class path stays the same, so the rule classes and the parsed rule
+ * sets of a previous check in the same daemon are reused.
+ */
+class IncrementPmdRunner {
+
+    /**
+     * Analyzes [files] with [ruleSets] (names or paths) and returns the violations found.
+     * [ruleSetKey] has to change whenever the contents of the rule sets do. Files found in
+     * [sources] are analyzed from there instead of being read again.
+     */
+    fun runPmd(
+        pmdClassPath: Set<File>,
+        auxClassPath: Set<File>,
+        ruleSets: List<String>,
+        ruleSetKey: String,
+        files: List<File>,
+        threads: Int,
+        rulePriority: Int,
+        targetJdk: String?,
+        sources: Map<String, ByteArray>?
+    ): List<PmdViolation> {
+        val loader = getPmdClassLoader(pmdClassPath)
+        val thread = Thread.currentThread()
+        val contextLoader = thread.contextClassLoader
+        thread.contextClassLoader = loader
+        try {
+            val cls = loader.loadClass(EXECUTION_CLASS)
+            val constructor = cls.getConstructor(
+                String::class.java,
+                String::class.java,
+                Int::class.javaPrimitiveType,
+                String::class.java,
+                String::class.java
+            )
+            val execution = constructor.newInstance(
+                ruleSets.joinToString(","),
+                ruleSetKey,
+                rulePriority,
+                targetJdk,
+                auxClassPath.joinToString(File.pathSeparator) { it.absolutePath }
+            )
+            val analyzeMethod = cls.getMethod("analyze", List::class.java, Int::class.javaPrimitiveType, Map::class.java)
+            @Suppress("UNCHECKED_CAST")
+            val rows = analyzeMethod.invoke(execution, files, threads, sources) as List<Array<Any>>
+            return rows.map {
+                PmdViolation(
+                    File(it[0] as String),
+                    it[1] as Int,
+                    it[2] as Int,
+                    it[3] as String,
+                    it[4] as String,
+                    it[5] as Int,
+                    it[6] as String
+                )
+            }
+        } catch (e: InvocationTargetException) {
+            throw e.targetException
+        } finally {
+            thread.contextClassLoader = contextLoader
+        }
+    }
+
+    companion object {
+
+        /**
+         * The jar (or classes directory) of this plugin, which pmd workers need on their class
+         * path for the execution classes.
+         */
+        fun getPluginClassPath(): File {
+            return File(IncrementPmdRunner::class.java.protectionDomain.codeSource.location.toURI())
+        }
+
+        /**
+         * Whether pmd of [pmdClassPath] links with the execution class, i.e. has the api
+         * [runPmd] uses. Checked before a run that has no ant task to fall back to.
+         */
+        fun canLoad(pmdClassPath: Set<File>): Boolean {
+            return try {
+                val cls = Class.forName(EXECUTION_CLASS, true, getPmdClassLoader(pmdClassPath))
+                // resolves the pmd types of the fields and signatures
+                cls.declaredFields
+                cls.declaredMethods
+                true
+            } catch (e: ClassNotFoundException) {
+                false
+            } catch (e: LinkageError) {
+                false
+            }
+        }
+
+        private const val EXECUTION_CLASS = "com.skateboard.hecatoncheires.checktools.IncrementPmdExecution"
+
+        private var loader: ClassLoader? = null
+
+        // the class path the current loader was created from
+        private var loaderClassPath: Set<File>? = null
+
+        @Synchronized
+        private fun getPmdClassLoader(pmdClassPath: Set<File>): ClassLoader {
+            if (loader == null || loaderClassPath != pmdClassPath) {
+                val urls = pmdClassPath.map { it.toURI().toURL() }.toMutableList()
+                urls.add(IncrementPmdRunner::class.java.protectionDomain.codeSource.location)
+                // only the platform classes are shared, pmd brings its own asm and jaxen
+                loader = URLClassLoader(urls.toTypedArray(), ClassLoader.getSystemClassLoader().parent)
+                loaderClassPath = pmdClassPath
+            }
+            return loader!!
+        }
+    }
+}
@@ -6,7 +6,6 @@ import com.android.tools.lint.gradle.api.LintExecutionRequest
 import com.google.common.base.Throwables
 import org.gradle.api.GradleException
 import org.gradle.api.invocation.Gradle
-import org.gradle.initialization.BuildCompletionListener
 import java.io.File
 import java.lang.reflect.InvocationTargetException
 import java.net.URI
@@ -15,14 +14,24 @@ import java.net.URLClassLoader
 
 class IncrementReflectiveLintRunner {
 
-    fun runLint(gradle: Gradle, request: LintExecutionRequest, lintClassPath: Set<File>) {
+    /**
+     * With [keepWarm] the lint class loader, the IntelliJ core environment and the JIT-compiled
+     * detectors stay resident in the Gradle daemon after the build, so the next commit check
+     * starts warm.
+     */
+    fun runLint(
+        request: LintExecutionRequest,
+        lintClassPath: Set<File>,
+        keepWarm: Boolean = false
+    ) {
         try {
-            val loader = getLintClassLoader(gradle, lintClassPath)
-            val cls = loader.loadClass("com.skateboard.hecatoncheires.checktools.IncrementLintGradleExecution")
-            val constructor = cls.getConstructor(LintExecutionRequest::class.java)
-            val driver = constructor.newInstance(request)
-            val analyzeMethod = driver.javaClass.getDeclaredMethod("analyze")
-            analyzeMethod.invoke(driver)
+            getLintClassLoader(lintClassPath, keepWarm).use { lease ->
+                val cls = lease.loader.loadClass("com.skateboard.hecatoncheires.checktools.IncrementLintGradleExecution")
+                val constructor = cls.getConstructor(LintExecutionRequest::class.java)
+                val driver = constructor.newInstance(request)
+                val analyzeMethod = driver.javaClass.getDeclaredMethod("analyze")
+                analyzeMethod.invoke(driver)
+            }
         } catch (e: InvocationTargetException) {
             if (e.targetException is GradleException) {
                 // Build error from lint -- pass it on
@@ -36,16 +45,16 @@ class IncrementReflectiveLintRunner {
     }
 
     fun extractAnnotations(
-        gradle: Gradle,
         request: ExtractAnnotationRequest,
         lintClassPath: Set<File>) {
         try {
-            val loader = getLintClassLoader(gradle, lintClassPath)
-            val cls = loader.loadClass("com.android.tools.lint.gradle.LintExtractAnnotations")
-            val driver = cls.newInstance()
-            val analyzeMethod = driver.javaClass.getDeclaredMethod("extractAnnotations",
-                ExtractAnnotationRequest::class.java)
-            analyzeMethod.invoke(driver, request)
+            getLintClassLoader(lintClassPath, false).use { lease ->
+                val cls = lease.loader.loadClass("com.android.tools.lint.gradle.LintExtractAnnotations")
+                val driver = cls.newInstance()
+                val analyzeMethod = driver.javaClass.getDeclaredMethod("extractAnnotations",
+                    ExtractAnnotationRequest::class.java)
+                analyzeMethod.invoke(driver, request)
+            }
         } catch (e: InvocationTargetException) {
             if (e.targetException is GradleException) {
                 // Build error from lint -- pass it on
@@ -61,27 +70,20 @@ class IncrementReflectiveLintRunner {
         "Lint infrastructure error\nCaused by: ${Throwables.getStackTraceAsString(t)}\n")
 
     companion object {
-        var loader: DelegatingClassLoader? = null
-
-        private fun getLintClassLoader(gradle: Gradle, lintClassPath: Set<File>): ClassLoader {
-            if (loader == null) {
-                val listener = BuildCompletionListener {
-                    val l = loader
-                    if (l != null) {
-                        loader = null
-                        val cls = l.loadClass("com.android.tools.lint.LintCoreApplicationEnvironment")
-                        val disposeMethod = cls.getDeclaredMethod("disposeApplicationEnvironment")
-                        disposeMethod.invoke(null)
-                    }
-                }
-                gradle.addListener(listener)
-
-                val urls = computeUrlsFromClassLoaderDelta(lintClassPath) ?:
-                computeUrlsFallback(lintClassPath)
-                loader = DelegatingClassLoader(urls.toTypedArray())
+        /**
+         * Makes the end of [gradle] decide what happens to the lint class loaders, see
+         * [LintClassLoaderPool].
+         */
+        @JvmStatic
+        fun registerBuild(gradle: Gradle) {
+            LintClassLoaderPool.registerBuild(gradle)
+        }
 
+        private fun getLintClassLoader(lintClassPath: Set<File>, keepWarm: Boolean): LintClassLoaderPool.Lease {
+            return LintClassLoaderPool.acquire(lintClassPath, keepWarm) {
+                val urls = computeUrlsFromClassLoaderDelta(it) ?: computeUrlsFallback(it)
+                DelegatingClassLoader(urls.toTypedArray())
             }
-            return loader!!
         }
 
         /**
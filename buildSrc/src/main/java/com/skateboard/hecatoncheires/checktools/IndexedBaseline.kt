@@ -0,0 +1,373 @@
+package com.skateboard.hecatoncheires.checktools
+
+import com.android.tools.lint.Warning
+import com.android.tools.lint.detector.api.TextFormat
+import com.skateboard.hecatoncheires.cache.Fingerprint
+import com.skateboard.hecatoncheires.cache.ResultCache
+import com.skateboard.hecatoncheires.util.ChangeSet
+import org.gradle.api.logging.Logging
+import java.io.*
+import java.util.*
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
+
+/**
+ * A lint baseline parsed once into a hash index, replacing lint's own baseline matching.
+ *
+ * Entries are keyed by a 64 bit fingerprint of issue id, file path (relative to the project
+ * directory) and message, so matching an issue is a single lookup instead of a walk over the
+ * xml. Lint matches more loosely, e.g. by path suffix or by messages lint changed between
+ * versions, so on a miss the issue is handed to lint's own baseline matcher and counts as
+ * listed when that one finds it, as long as the baseline holds an entry lint could match.
+ * The parsed form is cached in a binary file (see [load]) and only rebuilt when the content
+ * of the xml changed.
+ *
+ * Every lint run matches against a [Match] of its own; the matches of several variants are
+ * then merged exactly by the entries they found, see [count].
+ */
+class IndexedBaseline private constructor(
+    val xmlFile: File,
+    private val fingerprints: LongArray,
+    private val paths: Array<String>,
+    private val pathIds: IntArray,
+    private val ids: Array<String>,
+    private val issueIds: IntArray,
+    private val errors: BooleanArray
+) {
+
+    // fingerprint -> entries carrying it, an issue can be listed more than once
+    private val index = HashMap<Long, IntArray>(fingerprints.size * 2)
+
+    // issue id -> its entries, where lint's looser matching looks
+    private val issueEntries = HashMap<String, IntArray>(ids.size * 2)
+
+    init {
+        fingerprints.forEachIndexed { entry, fingerprint ->
+            val entries = index[fingerprint]
+            index[fingerprint] = if (entries == null) intArrayOf(entry) else entries + entry
+        }
+        issueIds.indices.groupBy { issueIds[it] }.forEach { (issue, entries) ->
+            issueEntries[ids[issue]] = entries.toIntArray()
+        }
+    }
+
+    fun newMatch(): Match = Match()
+
+    /**
+     * Merges the given matches: an entry counts as found when any of them found it, and as
+     * fixed when its file was analyzed but no match found it.
+     */
+    fun count(matches: Collection<Match>): Counts {
+        val found = BitSet(fingerprints.size)
+        val analyzedPaths = HashSet<String>()
+        matches.forEach {
+            found.or(it.found)
+            analyzedPaths.addAll(it.analyzedPaths)
+        }
+        var foundErrors = 0
+        var foundWarnings = 0
+        var fixed = 0
+        for (entry in fingerprints.indices) {
+            if (found.get(entry)) {
+                if (errors[entry]) foundErrors++ else foundWarnings++
+            } else if (analyzedPaths.contains(paths[pathIds[entry]])) {
+                fixed++
+            }
+        }
+        return Counts(foundErrors, foundWarnings, fixed)
+    }
+
+    /**
+     * Rewrites the entries of the analyzed files only: the entries still found are kept as
+     * they are, fixed ones are dropped and [warnings] of those files are added. Entries of all
+     * other files are copied unchanged.
+     */
+    @Throws(IOException::class)
+    fun rewrite(matches: Collection<Match>, warnings: List<Warning>, projectDir: File, changeSet: ChangeSet) {
+        val foundCounts = HashMap<Long, Int>()
+        val analyzedPaths = HashSet<String>()
+        val found = BitSet(fingerprints.size)
+        matches.forEach {
+            found.or(it.found)
+            analyzedPaths.addAll(it.analyzedPaths)
+        }
+        for (entry in fingerprints.indices) {
+            if (found.get(entry)) {
+                foundCounts[fingerprints[entry]] = (foundCounts[fingerprints[entry]] ?: 0) + 1
+            }
+        }
+
+        val text = xmlFile.readText()
+        val output = StringBuilder(text.length)
+        var last = 0
+        ISSUE_BLOCK.findAll(text).forEach { block ->
+            output.append(text, last, block.range.first)
+            last = block.range.last + 1
+            val path = LOCATION_FILE.find(block.value)?.groupValues?.get(1)?.let { unescape(it) } ?: ""
+            if (!analyzedPaths.contains(path)) {
+                output.append(block.value)
+                return@forEach
+            }
+            val id = ID.find(block.value)?.groupValues?.get(1) ?: ""
+            val message = unescape(MESSAGE.find(block.value)?.groupValues?.get(1) ?: "")
+            val fingerprint = Fingerprint.of(id, path, message)
+            val remaining = foundCounts[fingerprint] ?: 0
+            if (remaining > 0) {
+                foundCounts[fingerprint] = remaining - 1
+                output.append(block.value)
+            }
+        }
+        val end = text.lastIndexOf("</issues>")
+        if (end < last) {
+            // not a baseline lint wrote, leave it alone
+            return
+        }
+        output.append(text, last, end)
+        warnings.forEach { warning ->
+            val file = warning.file ?: return@forEach
+            val path = toPath(projectDir, changeSet.toSourceFile(file.absoluteFile))
+            if (analyzedPaths.contains(path)) {
+                appendIssue(output, warning, path)
+            }
+        }
+        output.append(text, end, text.length)
+        xmlFile.writeText(output.toString())
+    }
+
+    private fun appendIssue(output: StringBuilder, warning: Warning, path: String) {
+        output.append("    <issue\n")
+        output.append("        id=\"").append(escape(warning.issue.id)).append("\"\n")
+        output.append("        severity=\"").append(warning.severity.description).append("\"\n")
+        output.append("        message=\"").append(escape(warning.message)).append("\"\n")
+        output.append("        category=\"").append(escape(warning.issue.category.fullName)).append("\"\n")
+        output.append("        priority=\"").append(warning.issue.priority).append("\"\n")
+        output.append("        summary=\"").append(escape(warning.issue.getBriefDescription(TextFormat.TEXT)))
+            .append("\">\n")
+        output.append("        <location\n")
+        output.append("            file=\"").append(escape(path)).append("\"")
+        if (warning.line >= 0) {
+            output.append("\n            line=\"").append(warning.line + 1).append("\"")
+        }
+        output.append("/>\n")
+        output.append("    </issue>\n\n")
+    }
+
+    /**
+     * The baseline entries one lint run found, and the files it analyzed.
+     */
+    inner class Match {
+
+        internal val found = BitSet(fingerprints.size)
+
+        internal val analyzedPaths = HashSet<String>()
+
+        @Synchronized
+        fun analyzed(path: String) {
+            analyzedPaths.add(path)
+        }
+
+        /**
+         * Returns whether the issue is listed in the baseline and marks the entry as found.
+         * [message] is expected in the raw lint format, the one baselines store. Lint matches
+         * more loosely, but only entries of the same issue whose path ends like [path]; only
+         * when such an entry is left [lintMatcher], lint's own matching, is asked, and that
+         * entry is marked when it agrees. New issues therefore never reach lint's matcher.
+         */
+        @Synchronized
+        fun findAndMark(id: String, path: String, message: String, lintMatcher: (() -> Boolean)?): Boolean {
+            index[Fingerprint.of(id, path, message)]?.forEach {
+                if (!found.get(it)) {
+                    found.set(it)
+                    return true
+                }
+            }
+            // unknown, or found more often than it is listed: the extra occurrence is new
+            val entry = findLooseEntry(id, path) ?: return false
+            if (lintMatcher == null || !lintMatcher()) {
+                return false
+            }
+            found.set(entry)
+            return true
+        }
+
+        /**
+         * Returns an entry lint may match: one of the same issue not found yet whose path ends
+         * like [path], like lint compares paths.
+         */
+        private fun findLooseEntry(id: String, path: String): Int? {
+            val entries = issueEntries[id] ?: return null
+            entries.forEach { entry ->
+                if (!found.get(entry)) {
+                    val entryPath = paths[pathIds[entry]]
+                    if (path.endsWith(entryPath) || entryPath.endsWith(path)) {
+                        return entry
+                    }
+                }
+            }
+            return null
+        }
+    }
+
+    class Counts(val foundErrors: Int, val foundWarnings: Int, val fixed: Int)
+
+    companion object {
+
+        private const val VERSION = 2
+
+        private const val ISSUE = "issue"
+
+        private const val LOCATION = "location"
+
+        private val ISSUE_BLOCK = Regex("""[ \t]*<issue\b.*?</issue>[ \t]*\r?\n(?:[ \t]*\r?\n)?""", RegexOption.DOT_MATCHES_ALL)
+
+        private val ID = Regex("""\bid="([^"]*)"""")
+
+        private val MESSAGE = Regex("""\bmessage="([^"]*)"""")
+
+        private val LOCATION_FILE = Regex("""<location\b[^>]*?\bfile="([^"]*)"""", RegexOption.DOT_MATCHES_ALL)
+
+        private val CHARACTER_REFERENCE = Regex("""&#(x?)([0-9a-fA-F]+);""")
+
+        private val logger = Logging.getLogger(IndexedBaseline::class.java)
+
+        /**
+         * Loads the baseline [xmlFile], from [cacheFile] when it was written for the same
+         * content.
+         */
+        @JvmStatic
+        fun load(xmlFile: File, cacheFile: File): IndexedBaseline {
+            val stamp = ResultCache.hash(xmlFile.readBytes())
+            readCache(xmlFile, cacheFile, stamp)?.let { return it }
+            val baseline = parse(xmlFile)
+            baseline.writeCache(cacheFile, stamp)
+            return baseline
+        }
+
+        /**
+         * Returns the path baseline entries use for [file]: relative to [projectDir], with
+         * forward slashes.
+         */
+        @JvmStatic
+        fun toPath(projectDir: File, file: File): String {
+            return file.relativeTo(projectDir.absoluteFile).invariantSeparatorsPath
+        }
+
+        private fun parse(xmlFile: File): IndexedBaseline {
+            val fingerprints = mutableListOf<Long>()
+            val pathIds = mutableListOf<Int>()
+            val issueIds = mutableListOf<Int>()
+            val errors = mutableListOf<Boolean>()
+            val paths = LinkedHashMap<String, Int>()
+            val ids = LinkedHashMap<String, Int>()
+            val factory = XMLInputFactory.newInstance()
+            BufferedInputStream(FileInputStream(xmlFile)).use { input ->
+                val reader = factory.createXMLStreamReader(input)
+                var id: String? = null
+                var message = ""
+                var error = false
+                var path: String? = null
+                while (reader.hasNext()) {
+                    when (reader.next()) {
+                        XMLStreamConstants.START_ELEMENT -> when (reader.localName) {
+                            ISSUE -> {
+                                id = reader.getAttributeValue(null, "id")
+                                message = reader.getAttributeValue(null, "message") ?: ""
+                                val severity = reader.getAttributeValue(null, "severity")
+                                error = severity == "Error" || severity == "Fatal"
+                                path = null
+                            }
+                            LOCATION -> if (path == null) {
+                                path = reader.getAttributeValue(null, "file")
+                            }
+                        }
+                        XMLStreamConstants.END_ELEMENT -> if (reader.localName == ISSUE && id != null) {
+                            val entryPath = path ?: ""
+                            fingerprints.add(Fingerprint.of(id, entryPath, message))
+                            pathIds.add(paths.getOrPut(entryPath) { paths.size })
+                            issueIds.add(ids.getOrPut(id) { ids.size })
+                            errors.add(error)
+                            id = null
+                        }
+                    }
+                }
+                reader.close()
+            }
+            return IndexedBaseline(
+                xmlFile,
+                fingerprints.toLongArray(),
+                paths.keys.toTypedArray(),
+                pathIds.toIntArray(),
+                ids.keys.toTypedArray(),
+                issueIds.toIntArray(),
+                errors.toBooleanArray()
+            )
+        }
+
+        private fun readCache(xmlFile: File, cacheFile: File, stamp: String): IndexedBaseline? {
+            if (!cacheFile.isFile) {
+                return null
+            }
+            try {
+                DataInputStream(BufferedInputStream(FileInputStream(cacheFile))).use { input ->
+                    if (input.readInt() != VERSION || input.readUTF() != stamp) {
+                        return null
+                    }
+                    val paths = Array(input.readInt()) { input.readUTF() }
+                    val ids = Array(input.readInt()) { input.readUTF() }
+                    val count = input.readInt()
+                    val fingerprints = LongArray(count)
+                    val pathIds = IntArray(count)
+                    val issueIds = IntArray(count)
+                    val errors = BooleanArray(count)
+                    for (i in 0 until count) {
+                        fingerprints[i] = input.readLong()
+                        pathIds[i] = input.readInt()
+                        issueIds[i] = input.readInt()
+                        errors[i] = input.readBoolean()
+                    }
+                    return IndexedBaseline(xmlFile, fingerprints, paths, pathIds, ids, issueIds, errors)
+                }
+            } catch (e: IOException) {
+                cacheFile.delete()
+                return null
+            }
+        }
+
+        private fun escape(text: String): String {
+            return text.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;")
+                .replace(">", "&gt;").replace("\n", "&#xA;")
+        }
+
+        private fun unescape(text: String): String {
+            return CHARACTER_REFERENCE.replace(text) {
+                val radix = if (it.groupValues[1].isEmpty()) 10 else 16
+                it.groupValues[2].toInt(radix).toChar().toString()
+            }.replace("&quot;", "\"").replace("&apos;", "'").replace("&lt;", "<")
+                .replace("&gt;", ">").replace("&amp;", "&")
+        }
+    }
+
+    private fun writeCache(cacheFile: File, stamp: String) {
+        cacheFile.parentFile.mkdirs()
+        try {
+            DataOutputStream(BufferedOutputStream(FileOutputStream(cacheFile))).use { output ->
+                output.writeInt(VERSION)
+                output.writeUTF(stamp)
+                output.writeInt(paths.size)
+                paths.forEach { output.writeUTF(it) }
+                output.writeInt(ids.size)
+                ids.forEach { output.writeUTF(it) }
+                output.writeInt(fingerprints.size)
+                for (i in fingerprints.indices) {
+                    output.writeLong(fingerprints[i])
+                    output.writeInt(pathIds[i])
+                    output.writeInt(issueIds[i])
+                    output.writeBoolean(errors[i])
+                }
+            }
+        } catch (e: IOException) {
+            logger.warn("Could not cache the indexed baseline in $cacheFile", e)
+            cacheFile.delete()
+        }
+    }
+}
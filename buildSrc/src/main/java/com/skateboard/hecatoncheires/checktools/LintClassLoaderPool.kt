@@ -0,0 +1,176 @@
+package com.skateboard.hecatoncheires.checktools
+
+import com.android.tools.lint.gradle.api.DelegatingClassLoader
+import com.skateboard.hecatoncheires.cache.Fingerprint
+import org.gradle.api.invocation.Gradle
+import org.gradle.initialization.BuildCompletionListener
+import java.io.Closeable
+import java.io.File
+
+/**
+ * The lint class loaders of the daemon, keyed by lint class path and shared by the lint tasks
+ * of all modules.
+ *
+ * A loader is leased to one lint run at a time: the IntelliJ core environment living in it is
+ * not safe for concurrent analyses, so runs in parallel modules each get a loader of their
+ * own. Disposing a loader tears down its environment, so that only happens once no run holds
+ * it: at the end of the build unless one of its runs asked to keep it warm, when a jar of its
+ * class path was rebuilt, or when more than [MAX_IDLE_LOADERS] loaders are idle, the least
+ * recently used first. Only one loader per class path is kept warm.
+ */
+object LintClassLoaderPool {
+
+    /**
+     * Idle loaders kept, e.g. for modules on different lint class paths in one build.
+     */
+    private const val MAX_IDLE_LOADERS = 4
+
+    internal class Entry(val key: Long, val pathKey: Long, val loader: DelegatingClassLoader) {
+        var leases = 0
+        // when it was leased last, in leases of the pool
+        var lastUsed = 0L
+        // a run of this build asked to keep the loader after the build
+        var keepWarm = false
+        // no new leases; disposed when the last one is closed
+        var retired = false
+    }
+
+    /**
+     * A loader in use by one lint run; close it when the run is done.
+     */
+    class Lease internal constructor(private val entry: Entry) : Closeable {
+
+        val loader: ClassLoader
+            get() = entry.loader
+
+        private var closed = false
+
+        override fun close() {
+            synchronized(LintClassLoaderPool) {
+                if (!closed) {
+                    closed = true
+                    release(entry)
+                }
+            }
+        }
+    }
+
+    // keyed by the fingerprint of the lint class path and its files, see getClassPathKey
+    private val entries = HashMap<Long, MutableList<Entry>>()
+
+    private var leaseCount = 0L
+
+    // the build that already has a listener deciding what happens to the loaders
+    private var listenedBuild: Gradle? = null
+
+    /**
+     * Makes the end of [gradle] decide what happens to the loaders. Called while the build is
+     * configured, so running lint needs nothing from the build but its request.
+     */
+    @JvmStatic
+    @Synchronized
+    fun registerBuild(gradle: Gradle) {
+        if (listenedBuild === gradle) {
+            return
+        }
+        listenedBuild = gradle
+        gradle.addListener(BuildCompletionListener {
+            synchronized(LintClassLoaderPool) {
+                listenedBuild = null
+                for (pooled in entries.values.toList()) {
+                    val warm = pooled.firstOrNull { it.keepWarm }
+                    pooled.filter { it !== warm }.forEach { retire(it) }
+                    // the next build decides again
+                    warm?.keepWarm = false
+                }
+                trimIdle()
+            }
+        })
+    }
+
+    /**
+     * Leases an idle loader for [lintClassPath], created with [create] when all of them are in
+     * use. With [keepWarm] the loader outlives the build.
+     */
+    @Synchronized
+    fun acquire(
+        lintClassPath: Set<File>,
+        keepWarm: Boolean,
+        create: (Set<File>) -> DelegatingClassLoader
+    ): Lease {
+        val paths = lintClassPath.map { it.absolutePath }.sorted()
+        val pathKey = Fingerprint.of(*paths.toTypedArray())
+        val key = getClassPathKey(lintClassPath.sortedBy { it.absolutePath })
+        // loaders of jars since rebuilt at the same paths, e.g. a snapshot or buildSrc
+        entries.values.flatten().filter { it.pathKey == pathKey && it.key != key && it.leases == 0 }
+            .forEach { retire(it) }
+        val pooled = entries.getOrPut(key) { ArrayList() }
+        val entry = pooled.firstOrNull { it.leases == 0 }
+            ?: Entry(key, pathKey, create(lintClassPath)).also { pooled.add(it) }
+        entry.leases++
+        entry.lastUsed = ++leaseCount
+        entry.keepWarm = entry.keepWarm || keepWarm
+        return Lease(entry)
+    }
+
+    /**
+     * Fingerprints the class path by the paths, sizes and modification times of its files, so a
+     * jar rebuilt at the same path gets a new loader. Hashing the contents of every lint jar on
+     * each run would cost more than the warm loader saves.
+     */
+    private fun getClassPathKey(files: List<File>): Long {
+        var hash = Fingerprint.of()
+        files.forEach { file ->
+            hash = Fingerprint.add(hash, file.absolutePath)
+            if (file.isDirectory) {
+                file.walkTopDown().filter { it.isFile }.sortedBy { it.path }.forEach {
+                    hash = Fingerprint.add(hash, it.path)
+                    hash = Fingerprint.add(hash, "${it.length()}:${it.lastModified()}")
+                }
+            } else {
+                hash = Fingerprint.add(hash, "${file.length()}:${file.lastModified()}")
+            }
+        }
+        return hash
+    }
+
+    private fun release(entry: Entry) {
+        entry.leases--
+        if (entry.retired && entry.leases == 0) {
+            dispose(entry)
+        } else {
+            trimIdle()
+        }
+    }
+
+    /**
+     * Retires the least recently used idle loaders beyond [MAX_IDLE_LOADERS].
+     */
+    private fun trimIdle() {
+        val idle = entries.values.flatten().filter { it.leases == 0 }.sortedBy { it.lastUsed }
+        idle.take(Math.max(0, idle.size - MAX_IDLE_LOADERS)).forEach { retire(it) }
+    }
+
+    private fun retire(entry: Entry) {
+        entries[entry.key]?.let { pooled ->
+            pooled.remove(entry)
+            if (pooled.isEmpty()) {
+                entries.remove(entry.key)
+            }
+        }
+        entry.retired = true
+        if (entry.leases == 0) {
+            dispose(entry)
+        }
+    }
+
+    private fun dispose(entry: Entry) {
+        try {
+            val cls = entry.loader.loadClass("com.android.tools.lint.LintCoreApplicationEnvironment")
+            val disposeMethod = cls.getDeclaredMethod("disposeApplicationEnvironment")
+            disposeMethod.invoke(null)
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
+}
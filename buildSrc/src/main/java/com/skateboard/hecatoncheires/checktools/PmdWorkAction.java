@@ -0,0 +1,112 @@
+package com.skateboard.hecatoncheires.checktools;
+
+import javax.inject.Inject;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One part of a pmd check submitted through the Worker API, in an isolated class loader or a
+ * worker daemon holding the pmd class path. Worker daemons are kept by Gradle between builds,
+ * and with them the rule sets {@link IncrementPmdExecution} pooled there.
+ *
+ * Work items return nothing, so the violations are written to the output file, see
+ * {@link #read}. Only jdk types are used directly: the class is loaded by the plugin class
+ * loader as well, which has no pmd.
+ */
+public class PmdWorkAction implements Runnable {
+    private final String ruleSets;
+    private final String ruleSetKey;
+    private final int minimumPriority;
+    private final String targetJdk;
+    private final String auxClassPath;
+    private final List<File> files;
+    private final Map<String, byte[]> sources;
+    private final File output;
+
+    @Inject
+    public PmdWorkAction(
+            String ruleSets,
+            String ruleSetKey,
+            int minimumPriority,
+            String targetJdk,
+            String auxClassPath,
+            List<File> files,
+            Map<String, byte[]> sources,
+            File output) {
+        this.ruleSets = ruleSets;
+        this.ruleSetKey = ruleSetKey;
+        this.minimumPriority = minimumPriority;
+        this.targetJdk = targetJdk;
+        this.auxClassPath = auxClassPath;
+        this.files = files;
+        this.sources = sources;
+        this.output = output;
+    }
+
+    @Override
+    public void run() {
+        Thread thread = Thread.currentThread();
+        ClassLoader contextLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(getClass().getClassLoader());
+        try {
+            Class<?> cls = getClass().getClassLoader().loadClass(
+                    "com.skateboard.hecatoncheires.checktools.IncrementPmdExecution");
+            Object execution = cls
+                    .getConstructor(String.class, String.class, int.class, String.class, String.class)
+                    .newInstance(ruleSets, ruleSetKey, minimumPriority,
+                            targetJdk.isEmpty() ? null : targetJdk, auxClassPath);
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = (List<Object[]>) cls
+                    .getMethod("analyze", List.class, int.class, Map.class)
+                    // the work is split into items already, one thread each
+                    .invoke(execution, files, 1, sources);
+            write(rows);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.getTargetException());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            thread.setContextClassLoader(contextLoader);
+        }
+    }
+
+    private void write(List<Object[]> rows) throws IOException {
+        output.getParentFile().mkdirs();
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(output)))) {
+            out.writeInt(rows.size());
+            for (Object[] row : rows) {
+                out.writeUTF((String) row[0]);
+                out.writeInt((Integer) row[1]);
+                out.writeInt((Integer) row[2]);
+                out.writeUTF((String) row[3]);
+                out.writeUTF((String) row[4]);
+                out.writeInt((Integer) row[5]);
+                out.writeUTF((String) row[6]);
+            }
+        }
+    }
+
+    /**
+     * Reads the violations a work item wrote, as rows of file path, begin line, end line, rule,
+     * rule set, priority and message.
+     */
+    public static List<Object[]> read(File output) throws IOException {
+        List<Object[]> rows = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(output)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                rows.add(new Object[] {
+                        in.readUTF(), in.readInt(), in.readInt(), in.readUTF(), in.readUTF(),
+                        in.readInt(), in.readUTF()
+                });
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,87 @@
+package com.skateboard.hecatoncheires.checktools;
+
+import static com.android.SdkConstants.ANDROID_MANIFEST_XML;
+import static com.android.SdkConstants.DOT_CLASS;
+import static com.android.SdkConstants.DOT_GRADLE;
+import static com.android.SdkConstants.DOT_JAVA;
+import static com.android.SdkConstants.DOT_KT;
+import static com.android.SdkConstants.DOT_PROPERTIES;
+import static com.android.SdkConstants.DOT_XML;
+import static com.android.SdkConstants.FD_RES;
+
+import com.android.annotations.NonNull;
+import com.android.tools.lint.client.api.IssueRegistry;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Scope;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Issue registry holding only the issues the changed files can trigger.
+ *
+ * An issue is kept when its implementation can run on the scopes of the changed files alone,
+ * so a commit touching only java sources never sets up resource, manifest or gradle detectors,
+ * nor the project-wide passes that need all of them.
+ */
+class PrunedIssueRegistry extends IssueRegistry {
+    private final IssueRegistry delegate;
+    private final EnumSet<Scope> scope;
+    private List<Issue> issues;
+
+    PrunedIssueRegistry(@NonNull IssueRegistry delegate, @NonNull EnumSet<Scope> scope) {
+        this.delegate = delegate;
+        this.scope = scope;
+    }
+
+    @NonNull
+    @Override
+    public List<Issue> getIssues() {
+        if (issues == null) {
+            List<Issue> pruned = new ArrayList<>();
+            for (Issue issue : delegate.getIssues()) {
+                if (issue.getImplementation().isAdequate(scope)) {
+                    pruned.add(issue);
+                }
+            }
+            issues = Collections.unmodifiableList(pruned);
+        }
+        return issues;
+    }
+
+    @Override
+    public int getApi() {
+        return delegate.getApi();
+    }
+
+    /**
+     * Returns the scopes lint would analyze for the given changed files.
+     */
+    @NonNull
+    static EnumSet<Scope> inferScope(@NonNull Collection<File> files) {
+        EnumSet<Scope> scope = EnumSet.noneOf(Scope.class);
+        for (File file : files) {
+            String name = file.getName();
+            File parent = file.getParentFile();
+            File folder = parent != null ? parent.getParentFile() : null;
+            if (name.endsWith(DOT_JAVA) || name.endsWith(DOT_KT)) {
+                scope.add(Scope.JAVA_FILE);
+            } else if (name.equals(ANDROID_MANIFEST_XML)) {
+                scope.add(Scope.MANIFEST);
+            } else if (folder != null && folder.getName().equals(FD_RES)) {
+                scope.add(name.endsWith(DOT_XML) ? Scope.RESOURCE_FILE : Scope.BINARY_RESOURCE_FILE);
+            } else if (name.endsWith(DOT_GRADLE) || name.endsWith(".gradle.kts")) {
+                scope.add(Scope.GRADLE_FILE);
+            } else if (name.startsWith("proguard") || name.endsWith(".pro")) {
+                scope.add(Scope.PROGUARD_FILE);
+            } else if (name.endsWith(DOT_PROPERTIES)) {
+                scope.add(Scope.PROPERTY_FILE);
+            } else if (name.endsWith(DOT_CLASS)) {
+                scope.add(Scope.CLASS_FILE);
+            } else if (name.endsWith(DOT_XML)) {
+                scope.add(Scope.OTHER);
+            }
+        }
+        return scope;
+    }
+}
@@ -0,0 +1,339 @@
+package com.skateboard.hecatoncheires.checktools;
+
+import static com.android.SdkConstants.DOT_XML;
+import static com.android.tools.lint.gradle.SyncOptions.createOutputPath;
+import static com.android.tools.lint.gradle.SyncOptions.validateOutputFile;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.model.LintOptions;
+import com.android.tools.lint.Reporter;
+import com.android.tools.lint.Warning;
+import com.android.tools.lint.detector.api.Position;
+import com.android.tools.lint.detector.api.TextFormat;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+
+/**
+ * Writes the html, xml and text reports of the global lint task one warning at a time on a
+ * background thread, instead of handing the complete warning list to each lint reporter.
+ *
+ * Warnings are fed as each variant's results are merged, passed through a bounded queue and
+ * flushed to disk as they are written, so rendering needs no memory beyond the queue and lint
+ * goes on with the next variant meanwhile. {@link #finish} waits for the reports.
+ *
+ * The format is reduced compared to lint's own reporters: warnings appear in the order they
+ * were found instead of sorted, and the explanation, the error line, quick fixes and the
+ * variants reporting a warning are left out. Turn streamingReports off for the full reports.
+ */
+class StreamingReportWriter {
+    private static final int QUEUE_SIZE = 1024;
+
+    private final List<Output> outputs;
+    private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final Thread thread;
+    private volatile Reporter.Stats stats;
+    private volatile Throwable failure;
+
+    private StreamingReportWriter(@NonNull List<Output> outputs) {
+        this.outputs = outputs;
+        this.thread = new Thread(this::drain, "hecatoncheires-lint-report");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Creates the writer for the reports the lint options ask for, at the same locations
+     * lint would use, and starts it.
+     */
+    @NonNull
+    static StreamingReportWriter start(
+            @Nullable LintOptions options,
+            @NonNull Project project,
+            @Nullable File reportsDir,
+            boolean fatalOnly) {
+        List<Output> outputs = new ArrayList<>();
+        try {
+            if (options == null || options.getHtmlReport()) {
+                File html = options != null ? options.getHtmlOutput() : null;
+                outputs.add(new HtmlOutput(open(html != null ? html
+                        : createOutputPath(project, null, ".html", reportsDir, fatalOnly))));
+            }
+            if (options == null || options.getXmlReport()) {
+                File xml = options != null ? options.getXmlOutput() : null;
+                outputs.add(new XmlOutput(open(xml != null ? xml
+                        : createOutputPath(project, null, DOT_XML, reportsDir, fatalOnly))));
+            }
+            if (options == null || options.getTextReport()) {
+                File text = options != null ? options.getTextOutput() : null;
+                outputs.add(new TextOutput(openText(text != null ? text
+                        : createOutputPath(project, null, ".txt", reportsDir, fatalOnly))));
+            }
+        } catch (IOException e) {
+            throw new GradleException(e.getMessage(), e);
+        }
+        StreamingReportWriter writer = new StreamingReportWriter(outputs);
+        writer.thread.start();
+        return writer;
+    }
+
+    /**
+     * Queues one warning, blocking while the writer thread is behind.
+     */
+    void add(@NonNull Warning warning) {
+        put(warning);
+    }
+
+    /**
+     * Writes the summary, closes all reports and waits until they are on disk.
+     */
+    void finish(@NonNull Reporter.Stats stats) {
+        this.stats = stats;
+        end();
+        if (failure != null) {
+            throw new GradleException("Could not write lint reports", failure);
+        }
+    }
+
+    /**
+     * Closes the reports without a summary when lint itself failed.
+     */
+    void abandon() {
+        end();
+    }
+
+    private void end() {
+        // anything but a warning ends the queue
+        put(new Object());
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while writing lint reports", e);
+        }
+    }
+
+    private void put(@NonNull Object item) {
+        if (failure != null) {
+            // the writer thread is gone, nobody takes from the queue anymore
+            return;
+        }
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while writing lint reports", e);
+        }
+    }
+
+    private void drain() {
+        try {
+            for (Output output : outputs) {
+                output.begin();
+            }
+            while (true) {
+                Object item = queue.take();
+                if (!(item instanceof Warning)) {
+                    break;
+                }
+                for (Output output : outputs) {
+                    output.write((Warning) item);
+                }
+            }
+            if (stats != null) {
+                for (Output output : outputs) {
+                    output.end(stats);
+                }
+            }
+        } catch (Throwable t) {
+            failure = t;
+            queue.clear();
+        } finally {
+            for (Output output : outputs) {
+                output.close();
+            }
+        }
+    }
+
+    @NonNull
+    private static Writer open(@NonNull File file) throws IOException {
+        File output = validateOutputFile(file);
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(output),
+                StandardCharsets.UTF_8));
+    }
+
+    @NonNull
+    private static Writer openText(@NonNull File file) throws IOException {
+        String path = file.getPath();
+        if (path.equals("stdout")) {
+            return new PrintWriter(System.out, true);
+        } else if (path.equals("stderr")) {
+            return new PrintWriter(System.err, true);
+        }
+        return open(file);
+    }
+
+    private abstract static class Output {
+        protected final Writer writer;
+
+        Output(@NonNull Writer writer) {
+            this.writer = writer;
+        }
+
+        abstract void begin() throws IOException;
+
+        abstract void write(@NonNull Warning warning) throws IOException;
+
+        abstract void end(@NonNull Reporter.Stats stats) throws IOException;
+
+        void close() {
+            try {
+                writer.flush();
+                if (!(writer instanceof PrintWriter)) {
+                    writer.close();
+                }
+            } catch (IOException ignore) {
+            }
+        }
+
+        @NonNull
+        static String getMessage(@NonNull Warning warning) {
+            return TextFormat.RAW.convertTo(warning.message, TextFormat.TEXT);
+        }
+
+        @Nullable
+        static Position getStart(@NonNull Warning warning) {
+            return warning.location != null ? warning.location.getStart() : null;
+        }
+
+        @NonNull
+        static String escape(@NonNull String text) {
+            return text.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;")
+                    .replace(">", "&gt;").replace("\n", "&#xA;");
+        }
+    }
+
+    private static class HtmlOutput extends Output {
+        private int count;
+
+        HtmlOutput(@NonNull Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        void begin() throws IOException {
+            writer.write("<html><head><meta charset=\"utf-8\"><title>Lint Report</title></head><body>\n");
+            writer.write("<center><h3>Lint Report</h3></center>\n");
+            writer.write("<table align=\"center\" cellspacing=\"0\" cellpadding=\"3\"><tr>\n");
+            writer.write("<th>#</th><th>Severity</th><th>Issue</th><th>File</th><th>Line</th><th>Message</th></tr>\n");
+        }
+
+        @Override
+        void write(@NonNull Warning warning) throws IOException {
+            writer.write(count % 2 == 0 ? "<tr bgcolor=\"lightgrey\">\n" : "<tr>\n");
+            writer.write("<td align=\"center\">" + (++count) + "</td>\n");
+            writer.write("<td>" + warning.severity.getDescription() + "</td>\n");
+            writer.write("<td>" + escape(warning.issue.getId()) + "</td>\n");
+            writer.write("<td>" + escape(warning.path != null ? warning.path : "") + "</td>\n");
+            writer.write("<td align=\"center\">" + (warning.line >= 0 ? warning.line + 1 : "") + "</td>\n");
+            writer.write("<td>" + escape(getMessage(warning)) + "</td>\n");
+            writer.write("</tr>\n");
+            if (count % 100 == 0) {
+                writer.flush();
+            }
+        }
+
+        @Override
+        void end(@NonNull Reporter.Stats stats) throws IOException {
+            writer.write("</table>\n");
+            writer.write("<center><p>" + stats.errorCount + " errors, " + stats.warningCount
+                    + " warnings</p></center>\n");
+            writer.write("</body></html>\n");
+        }
+    }
+
+    private static class XmlOutput extends Output {
+        private int count;
+
+        XmlOutput(@NonNull Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        void begin() throws IOException {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<issues format=\"4\">\n\n");
+        }
+
+        @Override
+        void write(@NonNull Warning warning) throws IOException {
+            writer.write("    <issue\n");
+            writer.write("        id=\"" + escape(warning.issue.getId()) + "\"\n");
+            writer.write("        severity=\"" + warning.severity.getDescription() + "\"\n");
+            writer.write("        message=\"" + escape(warning.message) + "\"\n");
+            writer.write("        category=\"" + escape(warning.issue.getCategory().getFullName()) + "\"\n");
+            writer.write("        priority=\"" + warning.issue.getPriority() + "\"\n");
+            writer.write("        summary=\"" + escape(warning.issue.getBriefDescription(TextFormat.TEXT))
+                    + "\">\n");
+            if (warning.file != null) {
+                writer.write("        <location\n");
+                writer.write("            file=\"" + escape(warning.file.getPath()) + "\"");
+                Position start = getStart(warning);
+                if (start != null && start.getLine() >= 0) {
+                    writer.write("\n            line=\"" + (start.getLine() + 1) + "\"");
+                    if (start.getColumn() >= 0) {
+                        writer.write("\n            column=\"" + (start.getColumn() + 1) + "\"");
+                    }
+                }
+                writer.write("/>\n");
+            }
+            writer.write("    </issue>\n\n");
+            if (++count % 100 == 0) {
+                writer.flush();
+            }
+        }
+
+        @Override
+        void end(@NonNull Reporter.Stats stats) throws IOException {
+            writer.write("</issues>\n");
+        }
+    }
+
+    private static class TextOutput extends Output {
+
+        TextOutput(@NonNull Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        void begin() {
+        }
+
+        @Override
+        void write(@NonNull Warning warning) throws IOException {
+            StringBuilder line = new StringBuilder();
+            if (warning.path != null) {
+                line.append(warning.path).append(':');
+                if (warning.line >= 0) {
+                    line.append(warning.line + 1).append(':');
+                }
+                line.append(' ');
+            }
+            line.append(warning.severity.getDescription()).append(": ").append(getMessage(warning))
+                    .append(" [").append(warning.issue.getId()).append("]\n");
+            writer.write(line.toString());
+        }
+
+        @Override
+        void end(@NonNull Reporter.Stats stats) throws IOException {
+            writer.write(stats.errorCount + " errors, " + stats.warningCount + " warnings\n");
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.skateboard.hecatoncheires.checktools;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.model.AndroidArtifact;
+import com.android.builder.model.AndroidLibrary;
+import com.android.builder.model.AndroidProject;
+import com.android.builder.model.ApiVersion;
+import com.android.builder.model.BuildTypeContainer;
+import com.android.builder.model.ClassField;
+import com.android.builder.model.Dependencies;
+import com.android.builder.model.JavaLibrary;
+import com.android.builder.model.MavenCoordinates;
+import com.android.builder.model.ProductFlavor;
+import com.android.builder.model.ProductFlavorContainer;
+import com.android.builder.model.SourceProvider;
+import com.android.builder.model.Variant;
+import com.android.tools.lint.Warning;
+import com.skateboard.hecatoncheires.util.ChangeSet;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Decides which variant analyzes which changed file when several variants share source sets.
+ *
+ * A changed file is contained by every variant whose source sets hold it, e.g. all of them for
+ * src/main. Those variants are split by their effective configuration, since lint results may
+ * differ between them: compile sdk, sdk versions, dependencies, the existing source and
+ * resource directories of all their source sets, manifest placeholders, build config fields
+ * and resource values. Within one configuration the file is analyzed only by the first variant,
+ * and its warnings are attributed to the others.
+ */
+class VariantSourceSets {
+    private final ChangeSet changeSet;
+    private final Map<Variant, List<File>> sourceRoots = new HashMap<>();
+    private final Map<Variant, String> configurations = new HashMap<>();
+    // changed file -> variants sharing its analysis, the analyzing one first
+    private final Map<File, List<Variant>> sharing = new HashMap<>();
+
+    VariantSourceSets(
+            @NonNull AndroidProject modelProject,
+            @NonNull List<Variant> variants,
+            @NonNull ChangeSet changeSet) {
+        this.changeSet = changeSet;
+        List<Variant> sorted = new ArrayList<>(variants);
+        sorted.sort(Comparator.comparing(Variant::getName));
+        for (Variant variant : sorted) {
+            List<File> roots = getSourceRoots(modelProject, variant);
+            sourceRoots.put(variant, roots);
+            configurations.put(variant, getConfiguration(modelProject, variant, roots));
+        }
+        List<File> allFiles = new ArrayList<>(changeSet.getFiles());
+        allFiles.addAll(changeSet.getDependents());
+        for (File file : allFiles) {
+            Map<String, List<Variant>> byConfiguration = new HashMap<>();
+            for (Variant variant : sorted) {
+                if (contains(variant, file)) {
+                    byConfiguration
+                            .computeIfAbsent(configurations.get(variant), key -> new ArrayList<>())
+                            .add(variant);
+                }
+            }
+            if (byConfiguration.isEmpty() && !sorted.isEmpty()) {
+                // not in any known source set (build scripts, generated code): keep it on one variant
+                sharing.put(file, Collections.singletonList(sorted.get(0)));
+            } else if (byConfiguration.size() == 1) {
+                sharing.put(file, byConfiguration.values().iterator().next());
+            }
+            // files whose variants disagree on the configuration are analyzed by all of them
+        }
+    }
+
+    /**
+     * Returns the change set the given variant has to analyze itself.
+     */
+    @NonNull
+    ChangeSet getChangeSet(@NonNull Variant variant) {
+        return new ChangeSet(changeSet.getRootDir(), getFiles(variant, changeSet.getFiles()),
+                changeSet.getChangedLines(), changeSet.getOverlayDir(),
+                getFiles(variant, changeSet.getDependents()), changeSet.getImpactedLines());
+    }
+
+    @NonNull
+    private List<File> getFiles(@NonNull Variant variant, @NonNull List<File> candidates) {
+        List<File> files = new ArrayList<>();
+        for (File file : candidates) {
+            List<Variant> variants = sharing.get(file);
+            if (variants == null ? contains(variant, file) : variants.get(0) == variant) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Copies the warnings the analyzing variants found in shared files to the other variants
+     * sharing them, so that merging sees the same result as if every variant had analyzed them.
+     */
+    void attribute(@NonNull Map<Variant, List<Warning>> warningMap) {
+        Map<Variant, List<Warning>> shared = new HashMap<>();
+        for (Map.Entry<Variant, List<Warning>> entry : warningMap.entrySet()) {
+            for (Warning warning : entry.getValue()) {
+                List<Variant> variants = getVariants(entry.getKey(), warning);
+                for (int i = 1; i < variants.size(); i++) {
+                    shared.computeIfAbsent(variants.get(i), key -> new ArrayList<>()).add(warning);
+                }
+            }
+        }
+        for (Map.Entry<Variant, List<Warning>> entry : shared.entrySet()) {
+            List<Warning> warnings = warningMap.get(entry.getKey());
+            if (warnings != null) {
+                List<Warning> merged = new ArrayList<>(warnings);
+                merged.addAll(entry.getValue());
+                warningMap.put(entry.getKey(), merged);
+            }
+        }
+    }
+
+    /**
+     * Returns the variants a warning the given variant found belongs to: the variant itself
+     * first, followed by the ones sharing the analysis of the warning's file.
+     */
+    @NonNull
+    List<Variant> getVariants(@NonNull Variant variant, @NonNull Warning warning) {
+        if (warning.file != null) {
+            List<Variant> variants =
+                    sharing.get(changeSet.toSourceFile(warning.file.getAbsoluteFile()));
+            if (variants != null && variants.get(0) == variant) {
+                return variants;
+            }
+        }
+        return Collections.singletonList(variant);
+    }
+
+    private boolean contains(@NonNull Variant variant, @NonNull File file) {
+        for (File root : sourceRoots.get(variant)) {
+            if (file.toPath().startsWith(root.toPath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NonNull
+    private static List<File> getSourceRoots(
+            @NonNull AndroidProject modelProject, @NonNull Variant variant) {
+        List<SourceProvider> providers = new ArrayList<>();
+        providers.add(modelProject.getDefaultConfig().getSourceProvider());
+        for (BuildTypeContainer container : modelProject.getBuildTypes()) {
+            if (container.getBuildType().getName().equals(variant.getBuildType())) {
+                providers.add(container.getSourceProvider());
+            }
+        }
+        for (ProductFlavorContainer container : modelProject.getProductFlavors()) {
+            if (variant.getProductFlavors().contains(container.getProductFlavor().getName())) {
+                providers.add(container.getSourceProvider());
+            }
+        }
+        AndroidArtifact artifact = variant.getMainArtifact();
+        addIfNotNull(providers, artifact.getVariantSourceProvider());
+        addIfNotNull(providers, artifact.getMultiFlavorSourceProvider());
+
+        List<File> roots = new ArrayList<>();
+        for (SourceProvider provider : providers) {
+            roots.add(provider.getManifestFile().getAbsoluteFile());
+            addAll(roots, provider.getJavaDirectories());
+            addAll(roots, provider.getResourcesDirectories());
+            addAll(roots, provider.getAidlDirectories());
+            addAll(roots, provider.getRenderscriptDirectories());
+            addAll(roots, provider.getResDirectories());
+            addAll(roots, provider.getAssetsDirectories());
+        }
+        return roots;
+    }
+
+    /**
+     * Returns what lint results of shared sources depend on besides the sources themselves.
+     * Falls back to the variant name, i.e. no sharing, when the model cannot tell.
+     */
+    @NonNull
+    private static String getConfiguration(
+            @NonNull AndroidProject modelProject,
+            @NonNull Variant variant,
+            @NonNull List<File> roots) {
+        try {
+            StringBuilder key = new StringBuilder();
+            key.append(modelProject.getCompileTarget()).append('\n');
+            key.append(getDependencyKey(variant)).append('\n');
+            // the other files of the variant resolve symbols and resources of shared ones; every
+            // build type and flavor declares its directories, only those holding files count
+            List<String> paths = new ArrayList<>();
+            for (File root : roots) {
+                if (hasFiles(root)) {
+                    paths.add(root.getPath());
+                }
+            }
+            Collections.sort(paths);
+            key.append(paths).append('\n');
+            key.append(new TreeMap<>(variant.getMergedFlavor().getManifestPlaceholders()))
+                    .append('\n');
+            for (BuildTypeContainer container : modelProject.getBuildTypes()) {
+                if (container.getBuildType().getName().equals(variant.getBuildType())) {
+                    key.append(new TreeMap<>(container.getBuildType().getManifestPlaceholders()))
+                            .append('\n');
+                }
+            }
+            AndroidArtifact artifact = variant.getMainArtifact();
+            key.append(getFieldsKey(artifact.getBuildConfigFields())).append('\n');
+            key.append(getFieldsKey(artifact.getResValues()));
+            return key.toString();
+        } catch (RuntimeException e) {
+            return variant.getName();
+        }
+    }
+
+    private static boolean hasFiles(@NonNull File root) {
+        if (root.isFile()) {
+            return true;
+        }
+        String[] children = root.list();
+        return children != null && children.length > 0;
+    }
+
+    @NonNull
+    private static String getFieldsKey(@Nullable Map<String, ClassField> fields) {
+        if (fields == null) {
+            return "";
+        }
+        StringBuilder key = new StringBuilder();
+        for (ClassField field : new TreeMap<>(fields).values()) {
+            key.append(field.getType()).append(' ').append(field.getName()).append('=')
+                    .append(field.getValue()).append(';');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the sdk versions of the given variant and the resolved coordinates of all its
+     * libraries. Throws when the model does not provide them.
+     */
+    @NonNull
+    static String getDependencyKey(@NonNull Variant variant) {
+        StringBuilder key = new StringBuilder();
+        ProductFlavor flavor = variant.getMergedFlavor();
+        key.append(getApiString(flavor.getMinSdkVersion())).append(',')
+                .append(getApiString(flavor.getTargetSdkVersion())).append('\n');
+        Dependencies dependencies = variant.getMainArtifact().getDependencies();
+        Set<String> libraries = new TreeSet<>();
+        for (AndroidLibrary library : dependencies.getLibraries()) {
+            libraries.add(getCoordinates(library.getResolvedCoordinates()));
+        }
+        for (JavaLibrary library : dependencies.getJavaLibraries()) {
+            libraries.add(getCoordinates(library.getResolvedCoordinates()));
+        }
+        key.append(libraries);
+        return key.toString();
+    }
+
+    @NonNull
+    private static String getApiString(@Nullable ApiVersion version) {
+        return version != null ? version.getApiString() : "";
+    }
+
+    @NonNull
+    private static String getCoordinates(@Nullable MavenCoordinates coordinates) {
+        if (coordinates == null) {
+            return "";
+        }
+        return coordinates.getGroupId() + ':' + coordinates.getArtifactId() + ':'
+                + coordinates.getVersion();
+    }
+
+    private static void addIfNotNull(
+            @NonNull List<SourceProvider> providers, @Nullable SourceProvider provider) {
+        if (provider != null) {
+            providers.add(provider);
+        }
+    }
+
+    private static void addAll(@NonNull List<File> roots, @NonNull Collection<File> dirs) {
+        for (File dir : dirs) {
+            roots.add(dir.getAbsoluteFile());
+        }
+    }
+}
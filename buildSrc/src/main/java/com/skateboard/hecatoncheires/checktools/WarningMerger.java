@@ -0,0 +1,196 @@
+package com.skateboard.hecatoncheires.checktools;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.builder.model.AndroidProject;
+import com.android.builder.model.Variant;
+import com.android.tools.lint.Warning;
+import com.skateboard.hecatoncheires.cache.Fingerprint;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Merges the warnings of several variants as they come in, replacing
+ * {@code LintGradleClient.merge}.
+ *
+ * Each warning is reduced to a long fingerprint of issue, file, offset and message and
+ * looked up in a primitive hash table, so a warning found by every variant is kept once
+ * together with the set of variants reporting it. Paths and files are interned, and the
+ * variant lists can be dropped right after they were added. Memory and time therefore grow
+ * with the number of distinct warnings rather than with variants times warnings.
+ */
+class WarningMerger {
+    private final List<Variant> variants = new ArrayList<>();
+    private final LongIntMap index = new LongIntMap();
+    private final List<Warning> unique = new ArrayList<>();
+    // per unique warning, the variants reporting it
+    private final List<BitSet> reportedBy = new ArrayList<>();
+    private final Map<String, String> paths = new HashMap<>();
+    private final Map<String, File> files = new HashMap<>();
+
+    /**
+     * Adds the warnings lint found for the given variant and returns the ones no variant
+     * reported before. With shared source sets, warnings of shared files are attributed to all
+     * variants sharing them.
+     */
+    @NonNull
+    List<Warning> add(
+            @NonNull Variant variant,
+            @NonNull List<Warning> warnings,
+            @Nullable VariantSourceSets sourceSets) {
+        getVariantIndex(variant);
+        List<Warning> added = new ArrayList<>();
+        for (Warning warning : warnings) {
+            List<Variant> owners = sourceSets != null
+                    ? sourceSets.getVariants(variant, warning)
+                    : Collections.singletonList(variant);
+            long fingerprint = fingerprint(warning);
+            int entry = index.get(fingerprint);
+            if (entry < 0) {
+                entry = unique.size();
+                index.put(fingerprint, entry);
+                intern(warning);
+                unique.add(warning);
+                reportedBy.add(new BitSet());
+                added.add(warning);
+            }
+            BitSet bits = reportedBy.get(entry);
+            for (Variant owner : owners) {
+                bits.set(getVariantIndex(owner));
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Returns how many warnings each variant reported.
+     */
+    @NonNull
+    Map<Variant, Integer> getCounts() {
+        int[] counts = new int[variants.size()];
+        for (BitSet bits : reportedBy) {
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                counts[i]++;
+            }
+        }
+        Map<Variant, Integer> result = new LinkedHashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            result.put(variants.get(i), counts[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the sorted merged warnings; the ones not reported by every variant carry the
+     * names of the variants reporting them, like lint's own merge.
+     */
+    @NonNull
+    List<Warning> merge(@NonNull AndroidProject modelProject) {
+        if (variants.size() <= 1) {
+            List<Warning> merged = new ArrayList<>(unique);
+            Collections.sort(merged);
+            return merged;
+        }
+        Set<String> allVariants = new HashSet<>();
+        for (Variant variant : modelProject.getVariants()) {
+            allVariants.add(variant.getName());
+        }
+        List<Warning> merged = new ArrayList<>(unique.size());
+        for (int entry = 0; entry < unique.size(); entry++) {
+            Warning warning = unique.get(entry);
+            BitSet bits = reportedBy.get(entry);
+            Set<String> names = new HashSet<>();
+            for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+                names.add(variants.get(i).getName());
+            }
+            warning.allVariants = allVariants;
+            warning.variants = names;
+            merged.add(warning);
+        }
+        Collections.sort(merged);
+        return merged;
+    }
+
+    private int getVariantIndex(@NonNull Variant variant) {
+        int variantIndex = variants.indexOf(variant);
+        if (variantIndex < 0) {
+            variantIndex = variants.size();
+            variants.add(variant);
+        }
+        return variantIndex;
+    }
+
+    private void intern(@NonNull Warning warning) {
+        if (warning.path != null) {
+            warning.path = paths.computeIfAbsent(warning.path, path -> path);
+        }
+        if (warning.file != null) {
+            warning.file = files.computeIfAbsent(warning.file.getPath(), path -> warning.file);
+        }
+    }
+
+    private static long fingerprint(@NonNull Warning warning) {
+        long hash = Fingerprint.of(warning.issue.getId(),
+                warning.file != null ? warning.file.getPath() : "");
+        hash = Fingerprint.add(hash, warning.offset);
+        return Fingerprint.add(hash, warning.message);
+    }
+
+    /**
+     * Open addressing hash table from long to int without boxing; -1 means absent.
+     */
+    static class LongIntMap {
+        private long[] keys = new long[64];
+        private int[] values = new int[64];
+        private boolean[] used = new boolean[64];
+        private int size;
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = mix(key) & mask; used[slot]; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return -1;
+        }
+
+        void put(long key, int value) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (!used[slot]) {
+                used[slot] = true;
+                size++;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int mix(long key) {
+            long mixed = key * 0x9E3779B97F4A7C15L;
+            return (int) (mixed ^ (mixed >>> 32));
+        }
+    }
+}
@@ -1,3 +1,121 @@
 package com.skateboard.hecatoncheires.extension
 
-open class HecatoncheiresExtension(var enable: Boolean = true,var preCompile:Boolean=false)
\ No newline at end of file
+import com.skateboard.hecatoncheires.Constants.Companion.OPTIONS_PROPERTY
+import org.gradle.api.Project
+
+open class HecatoncheiresExtension(
+    var enable: Boolean = true,
+    var preCompile: Boolean = false,
+    var changedLinesOnly: Boolean = false,
+    var stagedOnly: Boolean = false,
+    var resultCache: Boolean = false,
+    var keepWarm: Boolean = false,
+    var shareSourceSets: Boolean = false,
+    var pruneRegistry: Boolean = false,
+    var impactAnalysis: Boolean = false,
+    var restrictedScope: Boolean = false,
+    var indexedBaseline: Boolean = false,
+    var updateBaseline: Boolean = false,
+    var streamingReports: Boolean = false,
+    var compactMerge: Boolean = false,
+    var fullReport: Boolean = false,
+    var pmdThreads: Int = 0,
+    var pmdWorkerApi: Boolean = false,
+    var pmdWorkerIsolation: String = CLASSLOADER,
+    var pmdWorkerHeap: String = "512m",
+    var pmdWorkerCount: Int = 0
+) {
+
+    fun toMap(): Map<String, Any> {
+        return mapOf(
+            "enable" to enable,
+            "preCompile" to preCompile,
+            "changedLinesOnly" to changedLinesOnly,
+            "stagedOnly" to stagedOnly,
+            "resultCache" to resultCache,
+            "keepWarm" to keepWarm,
+            "shareSourceSets" to shareSourceSets,
+            "pruneRegistry" to pruneRegistry,
+            "impactAnalysis" to impactAnalysis,
+            "restrictedScope" to restrictedScope,
+            "indexedBaseline" to indexedBaseline,
+            "updateBaseline" to updateBaseline,
+            "streamingReports" to streamingReports,
+            "compactMerge" to compactMerge,
+            "fullReport" to fullReport,
+            "pmdThreads" to pmdThreads,
+            "pmdWorkerApi" to pmdWorkerApi,
+            "pmdWorkerIsolation" to pmdWorkerIsolation,
+            "pmdWorkerHeap" to pmdWorkerHeap,
+            "pmdWorkerCount" to pmdWorkerCount
+        )
+    }
+
+    /**
+     * Makes these options visible to the lint execution, which runs in its own class loader
+     * and so cannot use this instance.
+     */
+    fun publish(project: Project) {
+        publish(project, toMap())
+    }
+
+    companion object {
+
+        /**
+         * [pmdWorkerIsolation] running pmd workers in worker daemons, reused between builds.
+         */
+        const val PROCESS = "process"
+
+        /**
+         * [pmdWorkerIsolation] running pmd workers in an isolated class loader of the build daemon.
+         */
+        const val CLASSLOADER = "classloader"
+
+        /**
+         * Publishes an options snapshot taken by [toMap], see [publish].
+         */
+        @JvmStatic
+        fun publish(project: Project, options: Map<String, Any>) {
+            project.extensions.extraProperties.set(OPTIONS_PROPERTY, options)
+        }
+
+        @JvmStatic
+        fun fromMap(map: Map<String, Any?>): HecatoncheiresExtension {
+            val extension = HecatoncheiresExtension()
+            (map["enable"] as Boolean?)?.let { extension.enable = it }
+            (map["preCompile"] as Boolean?)?.let { extension.preCompile = it }
+            (map["changedLinesOnly"] as Boolean?)?.let { extension.changedLinesOnly = it }
+            (map["stagedOnly"] as Boolean?)?.let { extension.stagedOnly = it }
+            (map["resultCache"] as Boolean?)?.let { extension.resultCache = it }
+            (map["keepWarm"] as Boolean?)?.let { extension.keepWarm = it }
+            (map["shareSourceSets"] as Boolean?)?.let { extension.shareSourceSets = it }
+            (map["pruneRegistry"] as Boolean?)?.let { extension.pruneRegistry = it }
+            (map["impactAnalysis"] as Boolean?)?.let { extension.impactAnalysis = it }
+            (map["restrictedScope"] as Boolean?)?.let { extension.restrictedScope = it }
+            (map["indexedBaseline"] as Boolean?)?.let { extension.indexedBaseline = it }
+            (map["updateBaseline"] as Boolean?)?.let { extension.updateBaseline = it }
+            (map["streamingReports"] as Boolean?)?.let { extension.streamingReports = it }
+            (map["compactMerge"] as Boolean?)?.let { extension.compactMerge = it }
+            (map["fullReport"] as Boolean?)?.let { extension.fullReport = it }
+            (map["pmdThreads"] as Int?)?.let { extension.pmdThreads = it }
+            (map["pmdWorkerApi"] as Boolean?)?.let { extension.pmdWorkerApi = it }
+            (map["pmdWorkerIsolation"] as String?)?.let { extension.pmdWorkerIsolation = it }
+            (map["pmdWorkerHeap"] as String?)?.let { extension.pmdWorkerHeap = it }
+            (map["pmdWorkerCount"] as Int?)?.let { extension.pmdWorkerCount = it }
+            return extension
+        }
+
+        /**
+         * Returns the options published for [project], or the defaults when none were.
+         */
+        @Suppress("UNCHECKED_CAST")
+        @JvmStatic
+        fun published(project: Project): HecatoncheiresExtension {
+            val ext = project.extensions.extraProperties
+            if (!ext.has(OPTIONS_PROPERTY)) {
+                return HecatoncheiresExtension()
+            }
+            return fromMap(ext.get(OPTIONS_PROPERTY) as Map<String, Any?>)
+        }
+    }
+}
@@ -5,57 +5,68 @@ import com.android.build.gradle.AppPlugin
 import com.android.build.gradle.LibraryExtension
 import com.android.build.gradle.LibraryPlugin
 import com.android.build.gradle.api.BaseVariant
-import com.android.build.gradle.internal.TaskFactoryImpl
 import com.android.build.gradle.internal.api.BaseVariantImpl
-import com.android.build.gradle.internal.scope.GlobalScope
-import com.android.build.gradle.internal.scope.VariantScope
 import com.android.build.gradle.internal.variant.BaseVariantData
 import com.android.build.gradle.tasks.LintBaseTask
 import com.skateboard.hecatoncheires.Constants
 import com.skateboard.hecatoncheires.Constants.Companion.ALIRULESETS
 import com.skateboard.hecatoncheires.Constants.Companion.GOUP_NAME
 import com.skateboard.hecatoncheires.Constants.Companion.HECATONCHEIRESEXTENSION_NAME
+import com.skateboard.hecatoncheires.Constants.Companion.INCREMENT_CHECK
 import com.skateboard.hecatoncheires.Constants.Companion.INCREMENT_LINT_PREFIX
 import com.skateboard.hecatoncheires.Constants.Companion.P3C_PMD_DEPENDENCY
 import com.skateboard.hecatoncheires.Constants.Companion.PMD
 import com.skateboard.hecatoncheires.Constants.Companion.PMDTASK
 import com.skateboard.hecatoncheires.Constants.Companion.PMD_CONFIGURATION
 import com.skateboard.hecatoncheires.Constants.Companion.PMD_DEPENDENCY
+import com.skateboard.hecatoncheires.Constants.Companion.PMD_FULL_TASK
+import com.skateboard.hecatoncheires.Constants.Companion.SEED_FULL_REPORT
 import com.skateboard.hecatoncheires.extension.HecatoncheiresExtension
+import com.skateboard.hecatoncheires.checktools.IncrementReflectiveLintRunner
+import com.skateboard.hecatoncheires.task.IncrementCheckTask
 import com.skateboard.hecatoncheires.task.IncrementLintGlobalTask
 import com.skateboard.hecatoncheires.task.IncrementLintPerVariantTask
+import com.skateboard.hecatoncheires.task.IncrementPmdTask
+import com.skateboard.hecatoncheires.task.SeedFullReportTask
+import com.skateboard.hecatoncheires.util.ChangeSetService
 import com.skateboard.hecatoncheires.util.GitUtil
+import com.skateboard.hecatoncheires.util.SourceBuffer
 import org.gradle.api.Plugin
 import org.gradle.api.Project
 import org.gradle.api.artifacts.Dependency
-import org.gradle.api.plugins.quality.Pmd
 import org.gradle.api.plugins.quality.PmdExtension
 import java.io.File
+import java.util.concurrent.Callable
 
+/**
+ * Tasks are only registered here. Their configuration, the variant lookups, the git diff and
+ * the hook update all happen when one of the increment tasks is actually part of the build,
+ * so builds not running them pay next to nothing.
+ */
 class LintIncrementCheckPlugin : Plugin<Project> {
 
-
-    private val excludeTasks = StringBuilder()
-
     override fun apply(project: Project) {
         configPmdCheck(project)
         configLintTask(project)
+        configCheckTask(project)
+        configSeedTask(project)
         prepareGitHook(project)
 
     }
 
+    /**
+     * The hook is brought up to date by the increment tasks when they run. Other builds only
+     * install a missing hook, or remove it when the checks are disabled.
+     */
     private fun prepareGitHook(project: Project) {
         val hecatoncheiresExtension =
             project.extensions.create(HECATONCHEIRESEXTENSION_NAME, HecatoncheiresExtension::class.java)
         project.afterEvaluate {
             if (hecatoncheiresExtension.enable) {
-                GitUtil.preparePreCommitHook(
-                    project,
-                    if (!hecatoncheiresExtension.preCompile)
-                        excludeTasks.toString()
-                    else ""
-                )
-            } else {
+                if (!GitUtil.hasPreCommitHook(project)) {
+                    writeGitHook(project)
+                }
+            } else if (GitUtil.hasPreCommitHook(project)) {
                 GitUtil.removePreCommitHook(
                     project
                 )
@@ -63,6 +74,34 @@ class LintIncrementCheckPlugin : Plugin<Project> {
         }
     }
 
+    private fun writeGitHook(project: Project) {
+        val hecatoncheiresExtension = project.extensions.getByType(HecatoncheiresExtension::class.java)
+        if (!hecatoncheiresExtension.enable) {
+            return
+        }
+        GitUtil.preparePreCommitHook(
+            project,
+            if (!hecatoncheiresExtension.preCompile)
+                getExcludeTasks(project)
+            else "",
+            hecatoncheiresExtension.keepWarm
+        )
+    }
+
+    /**
+     * The compile tasks lint depends on, skipped by the hook unless preCompile is set.
+     */
+    private fun getExcludeTasks(project: Project): String {
+        val excludeTasks = StringBuilder()
+        val globalTask = project.tasks.findByName(INCREMENT_LINT_PREFIX) ?: return ""
+        globalTask.taskDependencies.getDependencies(globalTask).forEach {
+            if (it.name.startsWith("compile")) {
+                excludeTasks.append("-x ${it.name} ")
+            }
+        }
+        return excludeTasks.toString()
+    }
+
 
     private fun configPmdCheck(project: Project) {
 
@@ -80,54 +119,147 @@ class LintIncrementCheckPlugin : Plugin<Project> {
 
     private fun configPmdTask(project: Project) {
         project.afterEvaluate {
-            val pmdExtension = project.extensions.findByName(PMD) as PmdExtension
-            val pmdTask = project.tasks.create(PMDTASK, Pmd::class.java)
-            pmdTask.targetJdk = pmdExtension.targetJdk
-            pmdTask.ignoreFailures = pmdExtension.isIgnoreFailures
-            ALIRULESETS.addAll(pmdExtension.ruleSets)
-            pmdTask.ruleSets = ALIRULESETS
-            pmdTask.ruleSetFiles = pmdExtension.ruleSetFiles
-            pmdTask.source(project.rootDir)
-            pmdTask.isConsoleOutput = pmdExtension.isConsoleOutput
-            pmdTask.rulePriority = pmdExtension.rulePriority
-            pmdTask.reports {
-                it.xml.isEnabled = true
-                it.xml.destination = File(pmdExtension.reportsDir, "report.xml")
-                it.html.isEnabled = true
-                it.html.destination = File(pmdExtension.reportsDir, "report.html")
+            project.tasks.register(PMDTASK, IncrementPmdTask::class.java) { pmdTask ->
+                val pmdExtension = project.extensions.findByName(PMD) as PmdExtension
+                configPmd(pmdTask, pmdExtension, pmdExtension.reportsDir)
+                pmdTask.ignoreFailures = pmdExtension.isIgnoreFailures
+                // exactly the changed files, so no directory is walked to find them; the diff is
+                // only read once the task needs its source
+                pmdTask.setSource(project.files(Callable { GitUtil.getCommitFilesForPMD(project) }))
+                pmdTask.isConsoleOutput = pmdExtension.isConsoleOutput
+                pmdTask.group = GOUP_NAME
+                pmdTask.onlyIf { !pmdTask.source.isEmpty }
+                pmdTask.doFirst { writeGitHook(project) }
+                pmdTask.doFirst { shareSources(project) }
+            }
+            project.tasks.register(PMD_FULL_TASK, IncrementPmdTask::class.java) { pmdTask ->
+                val pmdExtension = project.extensions.findByName(PMD) as PmdExtension
+                configPmd(pmdTask, pmdExtension, File(pmdExtension.reportsDir, "full"))
+                pmdTask.fullRun = true
+                pmdTask.ignoreFailures = true
+                pmdTask.setSource(project.files(Callable {
+                    ChangeSetService.getSourceRoots(project).filter { it.isDirectory }.map {
+                        project.fileTree(it).apply { include("**/*.java", "**/*.vm") }
+                    }
+                }))
+                pmdTask.isConsoleOutput = false
             }
-            pmdTask.group = GOUP_NAME
-            pmdTask.include(GitUtil.getCommitFilesPathForPMD())
-            pmdTask.exclude("**/build/**", "**/res/**", "**/*.xml", "**/*.gradle", "**/*.kt")
+        }
+    }
+
+    private fun configPmd(pmdTask: IncrementPmdTask, pmdExtension: PmdExtension, reportsDir: File) {
+        pmdTask.options = getOptions(pmdTask.project)
+        pmdTask.targetJdk = pmdExtension.targetJdk
+        // a list of its own per task, the p3c rule sets are shared by all modules
+        pmdTask.ruleSets = (ALIRULESETS + pmdExtension.ruleSets).distinct()
+        pmdTask.ruleSetFiles = pmdExtension.ruleSetFiles
+        pmdTask.rulePriority = pmdExtension.rulePriority
+        pmdTask.reports {
+            it.xml.isEnabled = true
+            it.xml.destination = File(reportsDir, "report.xml")
+            it.html.isEnabled = true
+            it.html.destination = File(reportsDir, "report.html")
         }
     }
 
     private fun configLintTask(project: Project) {
         addLintClassPath(project)
-        val taskFactory = TaskFactoryImpl(project.tasks)
+        // the lint class loader outlives a build only when keepWarm says so
+        IncrementReflectiveLintRunner.registerBuild(project.gradle)
         project.afterEvaluate {
             addLintClassPath(project)
-            val variantDataList = getVariantDataList(project)
-            var globalScope: GlobalScope? = null
-            var variantScopeList = mutableListOf<VariantScope>()
-            variantDataList?.forEach {
-                variantScopeList.add(it.scope)
-                globalScope = it.scope.globalScope
-                taskFactory.create(IncrementLintPerVariantTask.ConfigAction(it.scope))
-                val variantTask = taskFactory.findByName(it.scope.getTaskName(INCREMENT_LINT_PREFIX))
-                variantTask?.group = GOUP_NAME
+            val variants = createVariants(project) ?: return@afterEvaluate
+            // the variant data is only looked up when a lint task gets configured
+            variants.forEach { variant ->
+                project.tasks.register(
+                    INCREMENT_LINT_PREFIX + variant.name.capitalize(),
+                    IncrementLintPerVariantTask::class.java
+                ) { variantTask ->
+                    checkVariantData(variant)?.let {
+                        IncrementLintPerVariantTask.ConfigAction(it.scope).execute(variantTask)
+                    }
+                    variantTask.options = getOptions(project)
+                    variantTask.group = GOUP_NAME
+                    variantTask.onlyIf { hasChanges(project) }
+                }
             }
-            taskFactory.create(IncrementLintGlobalTask.GlobalConfigAction(globalScope!!, variantScopeList))
-            val globalTask = project.tasks.findByName(INCREMENT_LINT_PREFIX)
-            globalTask?.group = GOUP_NAME
-            globalTask?.taskDependencies?.getDependencies(globalTask)?.forEach { it ->
-                if (it.name.startsWith("compile")) {
-                    excludeTasks.append("-x ${it.name} ")
+            project.tasks.register(INCREMENT_LINT_PREFIX, IncrementLintGlobalTask::class.java) { globalTask ->
+                val variantScopeList = getVariantDataList(project)?.map { it.scope } ?: emptyList()
+                if (variantScopeList.isNotEmpty()) {
+                    IncrementLintGlobalTask.GlobalConfigAction(variantScopeList[0].globalScope, variantScopeList)
+                        .execute(globalTask)
                 }
+                globalTask.options = getOptions(project)
+                globalTask.group = GOUP_NAME
+                globalTask.onlyIf { hasChanges(project) }
+                globalTask.doFirst { writeGitHook(project) }
+                globalTask.doFirst { shareSources(project) }
             }
         }
     }
 
+    /**
+     * Adds `incrementcheck`, which runs `pmdcheck` and `incrementlint` of the module.
+     */
+    private fun configCheckTask(project: Project) {
+        project.afterEvaluate {
+            project.tasks.register(INCREMENT_CHECK, IncrementCheckTask::class.java) { checkTask ->
+                checkTask.group = GOUP_NAME
+                val pmdTask = project.tasks.findByName(PMDTASK)
+                val lintTask = project.tasks.findByName(INCREMENT_LINT_PREFIX)
+                pmdTask?.let { checkTask.dependsOn(it) }
+                lintTask?.let { checkTask.dependsOn(it) }
+                // dependencies start in alphabetical order; pmd has to start first, its worker
+                // then runs while lint holds the module. Unlike mustRunAfter this does not wait
+                // for the pmd work to finish
+                if (pmdTask != null && lintTask != null) {
+                    lintTask.shouldRunAfter(pmdTask)
+                }
+                // runs without changes too, to record them as skipped for the hook
+                checkTask.doFirst { writeGitHook(project) }
+            }
+        }
+    }
+
+    /**
+     * Adds `seedfullreport`, which fills the full reports of the module from one complete run
+     * of pmd and of the module's own `lint` task.
+     */
+    private fun configSeedTask(project: Project) {
+        project.afterEvaluate {
+            project.tasks.register(SEED_FULL_REPORT, SeedFullReportTask::class.java) { seedTask ->
+                seedTask.group = GOUP_NAME
+                seedTask.dependsOn(PMD_FULL_TASK)
+                // the android plugin may add its lint task after this one
+                seedTask.dependsOn(Callable { project.tasks.findByName("lint") })
+            }
+        }
+    }
+
+    /**
+     * Reads the changed files once for both checks when they run as part of `incrementcheck`.
+     */
+    private fun shareSources(project: Project) {
+        if (project.gradle.taskGraph.hasTask(project.absoluteProjectPath(INCREMENT_CHECK))) {
+            SourceBuffer.publishOnce(project, ChangeSetService.get(project))
+        }
+    }
+
+    /**
+     * Tasks run with the options as they were configured, not by looking the extension up.
+     */
+    private fun getOptions(project: Project): Map<String, Any> {
+        return project.extensions.getByType(HecatoncheiresExtension::class.java).toMap()
+    }
+
+    /**
+     * Modules without changed files or files depending on changes skip their checks instead of
+     * linting everything.
+     */
+    private fun hasChanges(project: Project): Boolean {
+        val changeSet = ChangeSetService.get(project)
+        return changeSet.files.isNotEmpty() || changeSet.dependents.isNotEmpty()
+    }
 
     private fun addLintClassPath(project: Project) {
         project.gradle.rootProject.configurations
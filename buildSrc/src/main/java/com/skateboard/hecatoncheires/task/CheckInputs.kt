@@ -0,0 +1,139 @@
+package com.skateboard.hecatoncheires.task
+
+import com.android.SdkConstants.DOT_XML
+import com.android.build.gradle.internal.publishing.AndroidArtifacts
+import com.android.build.gradle.internal.scope.GlobalScope
+import com.android.build.gradle.internal.scope.VariantScope
+import com.android.builder.model.LintOptions
+import com.android.tools.lint.gradle.SyncOptions.createOutputPath
+import com.skateboard.hecatoncheires.util.ChangeSetService
+import org.gradle.api.Project
+import org.gradle.api.file.FileCollection
+import java.io.File
+import java.util.concurrent.Callable
+
+/**
+ * What the results of the increment checks really depend on, declared as task inputs so the
+ * results can come from the build cache.
+ *
+ * Unchanged files equal their version in the HEAD commit, so the commit id together with the
+ * changed paths and their contents stands for the whole analyzed tree. The rest is the check
+ * configuration, which each task adds itself.
+ */
+object CheckInputs {
+
+    fun getBaseCommit(project: Project): String {
+        return ChangeSetService.getHead(project)
+    }
+
+    /**
+     * The changed files and dependents of [project], relative to the root directory. Dependents
+     * carry the lines their issues are reported on, which depend on changes of other files.
+     */
+    fun getChangedPaths(project: Project): List<String> {
+        val changeSet = ChangeSetService.get(project)
+        return changeSet.files.map { it.relativeTo(changeSet.rootDir).invariantSeparatorsPath } +
+                changeSet.dependents.map {
+                    val lines = changeSet.impactedLines[it]?.joinToString(",") ?: ""
+                    "${it.relativeTo(changeSet.rootDir).invariantSeparatorsPath}:$lines"
+                }
+    }
+
+    /**
+     * The files the checks read for the changed paths: the staged snapshots or the working tree
+     * files. The diff is only read once the collection is resolved.
+     */
+    fun getChangedFiles(project: Project): FileCollection {
+        return project.files(Callable {
+            val changeSet = ChangeSetService.get(project)
+            (changeSet.files + changeSet.dependents).map { changeSet.toAnalysisFile(it) }
+        })
+    }
+
+    /**
+     * The lint options that change which issues are reported.
+     */
+    fun getLintOptionsKey(options: LintOptions?): String {
+        if (options == null) {
+            return ""
+        }
+        val key = StringBuilder()
+        key.append(options.disable.sorted()).append('\n')
+        key.append(options.enable.sorted()).append('\n')
+        key.append(options.check.sorted()).append('\n')
+        key.append(options.severityOverrides?.toSortedMap()).append('\n')
+        key.append(options.isAbortOnError).append(',')
+            .append(options.isWarningsAsErrors).append(',')
+            .append(options.isIgnoreWarnings).append(',')
+            .append(options.isCheckAllWarnings).append(',')
+            .append(options.isCheckTestSources).append(',')
+            .append(options.isCheckGeneratedSources).append(',')
+            .append(options.isCheckDependencies).append(',')
+            .append(options.isNoLines).append(',')
+            .append(options.isShowAll).append(',')
+            .append(options.isExplainIssues).append(',')
+            .append(options.isAbsolutePaths)
+        return key.toString()
+    }
+
+    /**
+     * The resolved compile classpath of [scopes] and the boot classpath of the compile sdk.
+     * Lint resolves the changed sources against both, so a dependency or platform update
+     * changes the results although no source did.
+     */
+    fun getCompileClasspath(globalScope: GlobalScope, scopes: Collection<VariantScope>): FileCollection {
+        // the sdk target is only known once the build is configured
+        val classpath = globalScope.project.files(Callable { globalScope.androidBuilder.getBootClasspath(false) })
+        scopes.forEach {
+            classpath.from(
+                it.getJavaClasspath(
+                    AndroidArtifacts.ConsumedConfigType.COMPILE_CLASSPATH,
+                    AndroidArtifacts.ArtifactType.CLASSES
+                )
+            )
+        }
+        return classpath
+    }
+
+    /**
+     * The compile sdk and build tools the checked module is built with.
+     */
+    fun getSdkKey(globalScope: GlobalScope): String {
+        val extension = globalScope.extension
+        return "${extension.compileSdkVersion},${extension.buildToolsRevision}"
+    }
+
+    /**
+     * The lint configuration and baseline files, when set.
+     */
+    fun getLintConfigFiles(project: Project, options: LintOptions?): FileCollection {
+        return project.files(listOfNotNull(options?.lintConfig, options?.baselineFile))
+    }
+
+    /**
+     * The report files lint writes for [variantName], at the locations lint itself uses.
+     */
+    fun getLintReportFiles(
+        project: Project,
+        options: LintOptions?,
+        reportsDir: File?,
+        variantName: String?,
+        fatalOnly: Boolean
+    ): List<File> {
+        val files = mutableListOf<File>()
+        if (options == null || options.htmlReport) {
+            files.add(options?.htmlOutput ?: createOutputPath(project, variantName, ".html", reportsDir, fatalOnly))
+        }
+        if (options == null || options.xmlReport) {
+            files.add(options?.xmlOutput ?: createOutputPath(project, variantName, DOT_XML, reportsDir, fatalOnly))
+        }
+        if (options == null || options.textReport) {
+            val text = options?.textOutput ?: createOutputPath(project, variantName, ".txt", reportsDir, fatalOnly)
+            // stdout and stderr are no files to restore
+            if (text.path != "stdout" && text.path != "stderr") {
+                files.add(text)
+            }
+        }
+        return files
+    }
+}
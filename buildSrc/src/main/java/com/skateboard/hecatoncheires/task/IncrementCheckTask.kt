@@ -0,0 +1,39 @@
+package com.skateboard.hecatoncheires.task
+
+import com.skateboard.hecatoncheires.Constants.Companion.CHECK_RESULT
+import com.skateboard.hecatoncheires.util.ChangeSetService
+import com.skateboard.hecatoncheires.util.CheckResult
+import com.skateboard.hecatoncheires.util.SourceBuffer
+import org.gradle.api.DefaultTask
+import org.gradle.api.tasks.TaskAction
+
+/**
+ * The task behind `incrementcheck`: runs `pmdcheck` and `incrementlint` of one module as its
+ * dependencies, so both keep their up-to-date checks, build cache entries, `onlyIf` and
+ * outputs, and Gradle schedules them like any other task. With `--parallel` the modules are
+ * checked at the same time, and within a module pmd runs as Worker API work while lint runs on
+ * the task thread, see [IncrementPmdTask].
+ *
+ * The changed files are read once into a [SourceBuffer] the checks share, published by the
+ * first of them to run and dropped here. Each check records its outcome in the shared
+ * [CheckResult]; a module without changes records that it was skipped. Checks Gradle did not
+ * run because they were up to date or came from the build cache, e.g. when a commit is retried,
+ * have their recorded outcome restored here, since the hook clears the result file first.
+ */
+open class IncrementCheckTask : DefaultTask() {
+
+    @TaskAction
+    fun check() {
+        SourceBuffer.clear(project)
+        taskDependencies.getDependencies(this).forEach {
+            // upToDate covers FROM-CACHE as well, unlike onlyIf skips which left no new outcome
+            if (it.state.upToDate && !CheckResult.restore(it)) {
+                logger.warn("${it.path} was up to date but left no check result behind")
+            }
+        }
+        val changeSet = ChangeSetService.get(project)
+        if (changeSet.files.isEmpty() && changeSet.dependents.isEmpty()) {
+            CheckResult.record(project, CHECK_RESULT, CheckResult.SKIPPED, null, "no changed files")
+        }
+    }
+}
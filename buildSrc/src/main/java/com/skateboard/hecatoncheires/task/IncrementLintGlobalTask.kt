@@ -6,27 +6,100 @@ import com.android.build.gradle.internal.scope.GlobalScope
 import com.android.build.gradle.internal.scope.VariantScope
 import com.android.build.gradle.tasks.LintBaseTask
 import com.skateboard.hecatoncheires.Constants.Companion.INCREMENT_LINT_PREFIX
+import com.skateboard.hecatoncheires.Constants.Companion.LINT_RESULT
 import com.skateboard.hecatoncheires.checktools.IncrementLintGradleExecution
 import com.skateboard.hecatoncheires.checktools.IncrementReflectiveLintRunner
-import com.skateboard.hecatoncheires.util.GitUtil
+import com.skateboard.hecatoncheires.extension.HecatoncheiresExtension
+import com.skateboard.hecatoncheires.util.ChangeSet
+import com.skateboard.hecatoncheires.util.ChangeSetService
+import com.skateboard.hecatoncheires.util.CheckResult
 import org.gradle.api.file.ConfigurableFileCollection
 import org.gradle.api.file.FileCollection
+import org.gradle.api.tasks.CacheableTask
+import org.gradle.api.tasks.Classpath
+import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputFiles
 import org.gradle.api.tasks.Optional
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.OutputFiles
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
 import org.gradle.api.tasks.TaskAction
 import java.io.File
 
+/**
+ * Lints all variants. Cacheable: the results depend on the HEAD commit, the changed files,
+ * the compile classpath, the sdk and the lint configuration only, see [CheckInputs].
+ */
+@CacheableTask
 open class IncrementLintGlobalTask : LintBaseTask() {
 
     private var variantInputMap: MutableMap<String, LintBaseTask.VariantInputs> = mutableMapOf()
     private var allInputs: ConfigurableFileCollection? = null
+    private var compileClasspath: FileCollection? = null
+    private var sdkKey: String = ""
+
+    /**
+     * Snapshot of the module's [HecatoncheiresExtension], taken when the task is configured.
+     */
+    @get:Input
+    var options: Map<String, Any> = emptyMap()
 
     @InputFiles
     @Optional
+    @PathSensitive(PathSensitivity.RELATIVE)
     fun getAllInputs(): FileCollection? {
         return allInputs
     }
 
+    @Classpath
+    @Optional
+    fun getCompileClasspath(): FileCollection? {
+        return compileClasspath
+    }
+
+    @Input
+    fun getSdkKey(): String {
+        return sdkKey
+    }
+
+    @Input
+    fun getBaseCommit(): String {
+        return CheckInputs.getBaseCommit(project)
+    }
+
+    @Input
+    fun getChangedPaths(): List<String> {
+        return CheckInputs.getChangedPaths(project)
+    }
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    fun getChangedFiles(): FileCollection {
+        return CheckInputs.getChangedFiles(project)
+    }
+
+    @Input
+    fun getLintOptionsKey(): String {
+        return CheckInputs.getLintOptionsKey(lintOptions)
+    }
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    fun getLintConfigFiles(): FileCollection {
+        return CheckInputs.getLintConfigFiles(project, lintOptions)
+    }
+
+    @OutputFiles
+    fun getReportFiles(): List<File> {
+        return CheckInputs.getLintReportFiles(project, lintOptions, reportsDir, null, fatalOnly)
+    }
+
+    @OutputFile
+    fun getCheckResultFragment(): File {
+        return CheckResult.getFragmentFile(this)
+    }
+
     @TaskAction
     fun lint() {
         runLint(LintGlobalTaskDescriptor())
@@ -35,10 +108,14 @@ open class IncrementLintGlobalTask : LintBaseTask() {
     override fun runLint(descriptor: LintBaseTaskDescriptor) {
         val lintClassPath = lintClassPath
         if (lintClassPath != null) {
-            IncrementReflectiveLintRunner().runLint(
-                project.gradle,
-                descriptor, lintClassPath.files
-            )
+            ChangeSet.publish(project, ChangeSetService.get(project))
+            HecatoncheiresExtension.publish(project, options)
+            CheckResult.record(this, LINT_RESULT, reportsDir) {
+                IncrementReflectiveLintRunner().runLint(
+                    descriptor, lintClassPath.files,
+                    HecatoncheiresExtension.fromMap(options).keepWarm
+                )
+            }
         }
     }
 
@@ -81,6 +158,8 @@ open class IncrementLintGlobalTask : LintBaseTask() {
                 lintTask.allInputs?.from(inputs.allInputs)
                 lintTask.variantInputMap[inputs.name] = inputs
             }
+            lintTask.compileClasspath = CheckInputs.getCompileClasspath(globalScope, variantScopes)
+            lintTask.sdkKey = CheckInputs.getSdkKey(globalScope)
         }
     }
 }
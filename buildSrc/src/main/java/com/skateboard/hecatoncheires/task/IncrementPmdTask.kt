@@ -0,0 +1,253 @@
+package com.skateboard.hecatoncheires.task
+
+import com.skateboard.hecatoncheires.Constants.Companion.CACHE_DIR
+import com.skateboard.hecatoncheires.Constants.Companion.PMD_RESULT
+import com.skateboard.hecatoncheires.cache.ResultCache
+import com.skateboard.hecatoncheires.checktools.IncrementPmdRunner
+import com.skateboard.hecatoncheires.checktools.PmdWorkAction
+import com.skateboard.hecatoncheires.extension.HecatoncheiresExtension
+import com.skateboard.hecatoncheires.extension.HecatoncheiresExtension.Companion.CLASSLOADER
+import com.skateboard.hecatoncheires.util.ChangeSetService
+import com.skateboard.hecatoncheires.util.CheckResult
+import com.skateboard.hecatoncheires.util.PmdReport
+import com.skateboard.hecatoncheires.util.PmdViolation
+import com.skateboard.hecatoncheires.util.SourceBuffer
+import org.gradle.api.plugins.quality.Pmd
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.OutputFile
+import org.gradle.api.tasks.TaskAction
+import org.gradle.workers.IsolationMode
+import org.gradle.workers.WorkerExecutor
+import java.io.File
+import javax.inject.Inject
+
+/**
+ * The pmd task behind `pmdcheck`.
+ *
+ * Findings are cached per file content in `build/hecatoncheires/cache/pmd`, so only files
+ * without a cache entry are handed to pmd. With [HecatoncheiresExtension.changedLinesOnly]
+ * enabled, violations outside the changed lines are removed from the reports before deciding
+ * whether the check fails. With [HecatoncheiresExtension.fullReport] enabled, the unfiltered
+ * violations of the checked files are patched into the project-wide report. With [fullRun] the
+ * task checks every source instead, to seed that report.
+ *
+ * Pmd itself runs in process on [HecatoncheiresExtension.pmdThreads] threads with rule sets
+ * parsed once per daemon, see [IncrementPmdRunner], or with [HecatoncheiresExtension.pmdWorkerApi]
+ * in isolated Worker API workers; the ant task of [Pmd] is only used when neither is possible.
+ * The in-process check is submitted as Worker API work without isolation, see [PmdCheck], so
+ * the task action returns while pmd runs and Gradle can run `incrementlint` of the module at
+ * the same time.
+ */
+open class IncrementPmdTask @Inject constructor(private val workerExecutor: WorkerExecutor) : Pmd() {
+
+    /**
+     * Snapshot of the module's [HecatoncheiresExtension], taken when the task is configured.
+     */
+    @get:Input
+    var options: Map<String, Any> = emptyMap()
+
+    /**
+     * Checks the given sources as they are to seed the full report: nothing is filtered by the
+     * changed lines, recorded for the hook or failed on.
+     */
+    @get:Input
+    var fullRun: Boolean = false
+
+    /**
+     * Reported lines depend on the diff against this commit, the source files alone do not
+     * tell. Like [Pmd], the task is cacheable.
+     */
+    @Input
+    fun getBaseCommit(): String {
+        return CheckInputs.getBaseCommit(project)
+    }
+
+    @OutputFile
+    fun getCheckResultFragment(): File {
+        return CheckResult.getFragmentFile(this)
+    }
+
+    @TaskAction
+    override fun run() {
+        if (!reports.xml.isEnabled) {
+            if (fullRun) {
+                super.run()
+            } else {
+                CheckResult.record(this, PMD_RESULT, null) { super.run() }
+            }
+            return
+        }
+        val extension = HecatoncheiresExtension.fromMap(options)
+        val check = createCheck(extension)
+        if (!extension.pmdWorkerApi && IncrementPmdRunner.canLoad(pmdClasspath.files)) {
+            // the action returns right away, so Gradle starts incrementlint of the module while
+            // pmd works; the task only completes, and its outputs are only stored, once it is done
+            workerExecutor.submit(PmdCheckAction::class.java) { config ->
+                config.isolationMode = IsolationMode.NONE
+                config.displayName = "pmd ${project.path}"
+                config.params(check)
+            }
+        } else {
+            check.run { analyze(it, check, extension) }
+        }
+    }
+
+    private fun createCheck(extension: HecatoncheiresExtension): PmdCheck {
+        return PmdCheck(
+            ArrayList(source.files),
+            ChangeSetService.get(project).toMap(),
+            fullRun,
+            if (extension.resultCache) File(project.buildDir, "$CACHE_DIR${File.separator}pmd") else null,
+            getRuleSetKey(),
+            project.buildDir,
+            project.projectDir,
+            extension.fullReport || fullRun,
+            reports.xml.destination,
+            if (reports.html.isEnabled) reports.html.destination else null,
+            isConsoleOutput,
+            ignoreFailures,
+            if (fullRun) null else CheckResult.Target.of(this),
+            LinkedHashSet(pmdClasspath.files),
+            LinkedHashSet(classpath?.files ?: emptySet()),
+            getRuleSetPaths(),
+            extension.pmdThreads,
+            rulePriority,
+            targetJdk?.getName(),
+            SourceBuffer.published(project)?.let { HashMap(it) }
+        )
+    }
+
+    /**
+     * Runs pmd on [files] only, without failing or printing. Only when pmd cannot be loaded the
+     * ant task is used instead.
+     */
+    private fun analyze(files: List<File>, check: PmdCheck, extension: HecatoncheiresExtension): List<PmdViolation> {
+        return try {
+            if (extension.pmdWorkerApi) {
+                runInWorkers(files, extension)
+            } else {
+                check.runInProcess(files)
+            }
+        } catch (e: Throwable) {
+            if (!isClassLoadingFailure(e)) {
+                throw e
+            }
+            logger.warn("Could not load pmd in process or in workers, falling back to the pmd ant task: $e")
+            runAntTask(files)
+            PmdReport.read(reports.xml.destination)
+        }
+    }
+
+    /**
+     * Splits [files] into [HecatoncheiresExtension.pmdWorkerCount] work items for isolated pmd
+     * workers, see [PmdWorkAction]; Gradle's max workers limits how many run at once.
+     */
+    private fun runInWorkers(files: List<File>, extension: HecatoncheiresExtension): List<PmdViolation> {
+        val count = if (extension.pmdWorkerCount > 0) extension.pmdWorkerCount else Runtime.getRuntime().availableProcessors()
+        val chunks = files.chunked((files.size + count - 1) / count)
+        val workDir = File(temporaryDir, "pmd-work")
+        workDir.deleteRecursively()
+        val isolationMode = if (extension.pmdWorkerIsolation == CLASSLOADER) IsolationMode.CLASSLOADER else IsolationMode.PROCESS
+        val workerClassPath = pmdClasspath.files + IncrementPmdRunner.getPluginClassPath()
+        val ruleSetPaths = getRuleSetPaths().joinToString(",")
+        val ruleSetKey = getRuleSetKey()
+        val auxClassPath = (classpath?.files ?: emptySet<File>()).joinToString(File.pathSeparator) { it.absolutePath }
+        val sources = SourceBuffer.published(project)
+        val outputs = mutableListOf<File>()
+        chunks.forEachIndexed { index, chunk ->
+            val output = File(workDir, "$index.bin")
+            outputs.add(output)
+            val chunkSources = HashMap<String, ByteArray>()
+            sources?.let { buffer ->
+                chunk.forEach { file -> buffer[file.absolutePath]?.let { chunkSources[file.absolutePath] = it } }
+            }
+            workerExecutor.submit(PmdWorkAction::class.java) { config ->
+                config.isolationMode = isolationMode
+                config.displayName = "pmd ${project.path} (${index + 1}/${chunks.size})"
+                config.classpath(workerClassPath)
+                config.forkOptions { it.maxHeapSize = extension.pmdWorkerHeap }
+                config.params(
+                    ruleSetPaths,
+                    ruleSetKey,
+                    rulePriority,
+                    targetJdk?.getName() ?: "",
+                    auxClassPath,
+                    ArrayList(chunk),
+                    chunkSources,
+                    output
+                )
+            }
+        }
+        workerExecutor.await()
+        return outputs.flatMap { output ->
+            PmdWorkAction.read(output).map {
+                PmdViolation(
+                    File(it[0] as String),
+                    it[1] as Int,
+                    it[2] as Int,
+                    it[3] as String,
+                    it[4] as String,
+                    it[5] as Int,
+                    it[6] as String
+                )
+            }
+        }
+    }
+
+    /**
+     * Whether [t] comes from loading the pmd classes, e.g. a pmd version without the api the
+     * in-process execution uses, also when a worker failure wraps it.
+     */
+    private fun isClassLoadingFailure(t: Throwable): Boolean {
+        var cause: Throwable? = t
+        while (cause != null) {
+            if (cause is ClassNotFoundException || cause is NoSuchMethodException || cause is LinkageError) {
+                return true
+            }
+            cause = cause.cause
+        }
+        return false
+    }
+
+    private fun getRuleSetPaths(): List<String> {
+        val ruleSetPaths = mutableListOf<String>()
+        ruleSetPaths.addAll(ruleSets)
+        ruleSetFiles.files.forEach { ruleSetPaths.add(it.absolutePath) }
+        ruleSetConfig?.let { ruleSetPaths.add(it.asFile().absolutePath) }
+        return ruleSetPaths.distinct()
+    }
+
+    private fun runAntTask(files: List<File>) {
+        val originalSource = source
+        val originalIgnoreFailures = ignoreFailures
+        val originalConsoleOutput = isConsoleOutput
+        setSource(files)
+        ignoreFailures = true
+        isConsoleOutput = false
+        try {
+            super.run()
+        } finally {
+            setSource(originalSource)
+            ignoreFailures = originalIgnoreFailures
+            isConsoleOutput = originalConsoleOutput
+        }
+    }
+
+    /**
+     * Returns the hash of everything the rules depend on: the pmd class path (which holds the
+     * p3c rule sets), the rule set names, the contents of the rule set files and the options.
+     * The names are sorted, so the key stays the same between builds and daemons as long as the
+     * configuration does, and both the result cache and the rule set pool are hit.
+     */
+    private fun getRuleSetKey(): String {
+        val key = StringBuilder()
+        pmdClasspath?.files?.map { it.name }?.sorted()?.forEach { key.append(it).append(',') }
+        key.append('\n').append(ruleSets.distinct().sorted().joinToString(",")).append('\n')
+        ruleSetFiles.files.sortedBy { it.path }.forEach {
+            key.append(ResultCache.hash(it.readBytes())).append(',')
+        }
+        ruleSetConfig?.let { key.append(ResultCache.hash(it.asString())) }
+        key.append('\n').append(rulePriority).append('\n').append(targetJdk)
+        return ResultCache.hash(key.toString())
+    }
+}
@@ -0,0 +1,159 @@
+package com.skateboard.hecatoncheires.task
+
+import com.skateboard.hecatoncheires.Constants.Companion.PMD_RESULT
+import com.skateboard.hecatoncheires.cache.Finding
+import com.skateboard.hecatoncheires.cache.ResultCache
+import com.skateboard.hecatoncheires.checktools.IncrementPmdRunner
+import com.skateboard.hecatoncheires.util.ChangeSet
+import com.skateboard.hecatoncheires.util.CheckResult
+import com.skateboard.hecatoncheires.util.FullReport
+import com.skateboard.hecatoncheires.util.PmdReport
+import com.skateboard.hecatoncheires.util.PmdViolation
+import org.gradle.api.GradleException
+import org.gradle.api.logging.Logging
+import java.io.File
+import java.io.Serializable
+import javax.inject.Inject
+
+/**
+ * One run of [IncrementPmdTask] with its inputs collected: looks the files up in the result
+ * cache, analyzes the misses, patches the full report, filters by the changed lines, writes the
+ * reports and fails. It holds no project or task, so the task can hand it to the Worker API
+ * and return, see [PmdCheckAction].
+ */
+class PmdCheck(
+    private val files: List<File>,
+    private val changes: Map<String, Any>,
+    private val fullRun: Boolean,
+    private val cacheDir: File?,
+    private val ruleSetKey: String,
+    private val buildDir: File,
+    private val projectDir: File,
+    private val fullReport: Boolean,
+    private val xmlReport: File,
+    private val htmlReport: File?,
+    private val consoleOutput: Boolean,
+    private val ignoreFailures: Boolean,
+    private val result: CheckResult.Target?,
+    private val pmdClassPath: Set<File>,
+    private val auxClassPath: Set<File>,
+    private val ruleSets: List<String>,
+    private val threads: Int,
+    private val rulePriority: Int,
+    private val targetJdk: String?,
+    private val sources: Map<String, ByteArray>?
+) : Serializable {
+
+    /**
+     * Runs the check, analyzing the files without a cache entry with [analyze]. The outcome is
+     * recorded for the hook unless this is a [fullRun].
+     */
+    fun run(analyze: (List<File>) -> List<PmdViolation>) {
+        if (result == null) {
+            check(analyze)
+        } else {
+            CheckResult.record(result, PMD_RESULT, xmlReport) { check(analyze) }
+        }
+    }
+
+    /**
+     * Analyzes [files] with the in-process [IncrementPmdRunner].
+     */
+    fun runInProcess(files: List<File>): List<PmdViolation> {
+        val threadCount = if (threads > 0) threads else Runtime.getRuntime().availableProcessors()
+        return IncrementPmdRunner().runPmd(
+            pmdClassPath,
+            auxClassPath,
+            ruleSets,
+            ruleSetKey,
+            files,
+            // more threads than files only add start up cost
+            Math.min(threadCount, files.size),
+            rulePriority,
+            targetJdk,
+            sources
+        )
+    }
+
+    private fun check(analyze: (List<File>) -> List<PmdViolation>) {
+        val changeSet = ChangeSet.fromMap(changes)
+        val cache = cacheDir?.let { ResultCache(it, ruleSetKey) }
+
+        val violations = mutableListOf<PmdViolation>()
+        val misses = mutableListOf<File>()
+        files.forEach { file ->
+            val cached = cache?.get(file)
+            if (cached != null) {
+                cached.forEach { violations.add(PmdViolation.fromFinding(file, it)) }
+            } else {
+                misses.add(file)
+            }
+        }
+        if (misses.isNotEmpty()) {
+            val found = analyze(misses)
+            // analysis errors fail the check before anything is cached for them
+            if (cache != null) {
+                val violationsByFile = found.groupBy { it.file.absoluteFile }
+                misses.forEach { file ->
+                    cache.put(file, violationsByFile[file.absoluteFile]?.map { it.toFinding() } ?: emptyList())
+                }
+            }
+            violations.addAll(found)
+        }
+        if (fullReport) {
+            updateFullReport(changeSet, violations)
+        }
+
+        val reported = if (fullRun) {
+            violations
+        } else {
+            violations.filter { changeSet.isReported(it.file, it.beginLine, it.endLine) }
+        }
+        PmdReport.writeXml(xmlReport, reported)
+        if (htmlReport != null) {
+            PmdReport.writeHtml(htmlReport, reported)
+        }
+        val logger = Logging.getLogger(IncrementPmdTask::class.java)
+        if (consoleOutput) {
+            reported.forEach {
+                logger.quiet("${it.file}:${it.beginLine}:\t${it.message}")
+            }
+        }
+        if (reported.isNotEmpty() && !fullRun) {
+            val message = "${reported.size} PMD rule violations were found. See the report at: ${xmlReport.toURI()}"
+            if (!ignoreFailures) {
+                throw GradleException(message)
+            }
+            logger.warn(message)
+        }
+    }
+
+    /**
+     * Replaces the full report partitions of every checked file with its unfiltered violations.
+     */
+    private fun updateFullReport(changeSet: ChangeSet, violations: List<PmdViolation>) {
+        val report = FullReport.of(buildDir, projectDir, PMD_RESULT)
+        val findings = mutableMapOf<File, MutableList<Finding>>()
+        files.forEach { findings[changeSet.toSourceFile(it.absoluteFile)] = mutableListOf() }
+        violations.forEach {
+            findings.getOrPut(changeSet.toSourceFile(it.file.absoluteFile)) { mutableListOf() }.add(it.toFinding())
+        }
+        if (fullRun) {
+            report.seed(findings)
+        } else {
+            report.update(findings)
+        }
+        report.render(PMD_RESULT)
+    }
+}
+
+/**
+ * Runs a [PmdCheck] with the in-process pmd runner as Worker API work without isolation, on a
+ * Gradle worker thread instead of the task thread.
+ */
+class PmdCheckAction @Inject constructor(private val check: PmdCheck) : Runnable {
+
+    override fun run() {
+        check.run { check.runInProcess(it) }
+    }
+}
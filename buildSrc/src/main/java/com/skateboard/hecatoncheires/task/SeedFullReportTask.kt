@@ -0,0 +1,98 @@
+package com.skateboard.hecatoncheires.task
+
+import com.android.build.gradle.BaseExtension
+import com.skateboard.hecatoncheires.Constants.Companion.LINT_RESULT
+import com.skateboard.hecatoncheires.cache.Finding
+import com.skateboard.hecatoncheires.util.FullReport
+import org.gradle.api.DefaultTask
+import org.gradle.api.tasks.TaskAction
+import java.io.BufferedInputStream
+import java.io.File
+import java.io.FileInputStream
+import java.util.*
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
+
+/**
+ * The task behind `seedfullreport`: fills the full reports of the module from one complete run,
+ * so they cover every file and not only the ones checked since fullReport was enabled.
+ *
+ * Pmd checks every source in `pmdfull`, a [IncrementPmdTask] with [IncrementPmdTask.fullRun]
+ * set. The lint findings are read from the xml report of the module's own `lint` task, which
+ * this task runs first.
+ */
+open class SeedFullReportTask : DefaultTask() {
+
+    @TaskAction
+    fun seed() {
+        val xml = getLintXmlReport()
+        if (!xml.isFile) {
+            logger.warn("No lint xml report at $xml, the full lint report was not seeded")
+            return
+        }
+        val fullReport = FullReport.of(project.buildDir, project.projectDir, LINT_RESULT)
+        fullReport.seed(readLintFindings(xml))
+        fullReport.render(LINT_RESULT)
+    }
+
+    private fun getLintXmlReport(): File {
+        val options = project.extensions.findByType(BaseExtension::class.java)?.lintOptions
+        return options?.xmlOutput ?: File(project.buildDir, "reports${File.separator}lint-results.xml")
+    }
+
+    /**
+     * Reads the issues of a lint xml report, keyed by the file of their first location.
+     */
+    private fun readLintFindings(xml: File): Map<File, List<Finding>> {
+        val findings = mutableMapOf<File, MutableList<Finding>>()
+        BufferedInputStream(FileInputStream(xml)).use { input ->
+            val reader = XMLInputFactory.newInstance().createXMLStreamReader(input)
+            var issue: Map<String, String>? = null
+            var located = false
+            while (reader.hasNext()) {
+                when (reader.next()) {
+                    XMLStreamConstants.START_ELEMENT -> when (reader.localName) {
+                        "issue" -> {
+                            issue = (0 until reader.attributeCount).associate {
+                                reader.getAttributeLocalName(it) to reader.getAttributeValue(it)
+                            }
+                            located = false
+                        }
+                        "location" -> {
+                            val attributes = issue
+                            val path = reader.getAttributeValue(null, "file")
+                            if (attributes != null && !located && path != null) {
+                                located = true
+                                val file = File(path).let { if (it.isAbsolute) it else File(project.projectDir, path) }
+                                val line = reader.getAttributeValue(null, "line")?.toIntOrNull() ?: -1
+                                val column = reader.getAttributeValue(null, "column")?.toIntOrNull()?.minus(1) ?: -1
+                                findings.getOrPut(file.absoluteFile) { mutableListOf() }.add(
+                                    Finding(
+                                        attributes["id"] ?: "", "", toSeverity(attributes["severity"]),
+                                        line, column, -1, line, -1, -1, attributes["message"] ?: ""
+                                    )
+                                )
+                            }
+                        }
+                    }
+                    XMLStreamConstants.END_ELEMENT -> if (reader.localName == "issue") {
+                        issue = null
+                    }
+                }
+            }
+            reader.close()
+        }
+        return findings
+    }
+
+    /**
+     * Turns the severity description of the xml report back into the name incremental runs store.
+     */
+    private fun toSeverity(description: String?): String {
+        return when (description) {
+            null -> ""
+            "Information" -> "INFORMATIONAL"
+            else -> description.toUpperCase(Locale.US)
+        }
+    }
+}
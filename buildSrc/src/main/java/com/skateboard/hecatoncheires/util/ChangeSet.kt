@@ -0,0 +1,162 @@
+package com.skateboard.hecatoncheires.util
+
+import com.skateboard.hecatoncheires.Constants.Companion.CHANGE_SET_PROPERTY
+import org.gradle.api.Project
+import java.io.File
+
+/**
+ * The files touched by the current commit, resolved against the git work tree.
+ *
+ * When [changedLines] is set only issues on those lines are reported. Each value holds
+ * 1-based inclusive line ranges flattened as `start, end, start, end, ...`.
+ *
+ * When [overlayDir] is set the change set only holds staged changes, and lint and pmd analyze
+ * the index snapshots stored below it instead of the working tree files. Lint parses staged
+ * java and kotlin sources in overlays of their source roots and reads other staged files
+ * through their working tree paths.
+ *
+ * [dependents] are unchanged files depending on [files] or on changed files of the modules
+ * they consume. Lint analyzes them as well, so that cross-file issues caused by the change show
+ * up. Their issues are only reported on the [impactedLines], the lines naming a symbol the
+ * change touched, since the rest of a dependent reports what it reported before.
+ *
+ * Lint runs in its own class loader (see IncrementReflectiveLintRunner), so a change set is
+ * handed over to it as a plain map stored in the project's extra properties; only JDK types
+ * may cross that boundary.
+ */
+data class ChangeSet(
+    val rootDir: File,
+    val files: List<File>,
+    val changedLines: Map<File, IntArray>? = null,
+    val overlayDir: File? = null,
+    val dependents: List<File> = emptyList(),
+    val impactedLines: Map<File, IntArray> = emptyMap()
+) {
+
+    /**
+     * The files lint and pmd should read: the staged snapshots, or the working tree files.
+     */
+    val analysisFiles: List<File>
+        get() = files.map { toAnalysisFile(it) }
+
+    fun toAnalysisFile(file: File): File {
+        return if (overlayDir != null) File(overlayDir, file.relativeTo(rootDir).path) else file
+    }
+
+    /**
+     * Maps a staged snapshot back to the working tree file it stands for.
+     */
+    fun toSourceFile(file: File): File {
+        return if (overlayDir != null && file.startsWith(overlayDir)) {
+            File(rootDir, file.relativeTo(overlayDir).path)
+        } else {
+            file
+        }
+    }
+
+    /**
+     * Returns whether an issue spanning [beginLine]..[endLine] of [file] should be reported.
+     * A negative [beginLine] marks an issue without a position, which is kept for changed files.
+     */
+    @JvmOverloads
+    fun isReported(file: File?, beginLine: Int, endLine: Int = beginLine): Boolean {
+        if (file == null) {
+            return changedLines == null
+        }
+        val absoluteFile = toSourceFile(file.absoluteFile)
+        if (dependents.contains(absoluteFile)) {
+            val ranges = impactedLines[absoluteFile] ?: return false
+            return beginLine >= 0 && overlaps(ranges, beginLine, endLine)
+        }
+        val lines = changedLines ?: return true
+        val ranges = lines[absoluteFile] ?: return files.contains(absoluteFile)
+        if (beginLine < 0) {
+            return true
+        }
+        return overlaps(ranges, beginLine, endLine)
+    }
+
+    private fun overlaps(ranges: IntArray, beginLine: Int, endLine: Int): Boolean {
+        var i = 0
+        while (i < ranges.size) {
+            if (beginLine <= ranges[i + 1] && endLine >= ranges[i]) {
+                return true
+            }
+            i += 2
+        }
+        return false
+    }
+
+    fun toMap(): Map<String, Any> {
+        val map = mutableMapOf<String, Any>(KEY_ROOT_DIR to rootDir, KEY_FILES to files)
+        if (changedLines != null) {
+            map[KEY_CHANGED_LINES] = changedLines
+        }
+        if (overlayDir != null) {
+            map[KEY_OVERLAY_DIR] = overlayDir
+        }
+        if (dependents.isNotEmpty()) {
+            map[KEY_DEPENDENTS] = dependents
+            map[KEY_IMPACTED_LINES] = impactedLines
+        }
+        return map
+    }
+
+    companion object {
+
+        private const val KEY_ROOT_DIR = "rootDir"
+
+        private const val KEY_FILES = "files"
+
+        private const val KEY_CHANGED_LINES = "changedLines"
+
+        private const val KEY_OVERLAY_DIR = "overlayDir"
+
+        private const val KEY_DEPENDENTS = "dependents"
+
+        private const val KEY_IMPACTED_LINES = "impactedLines"
+
+        /**
+         * Range used for files that do not exist in HEAD: every line is new.
+         */
+        @JvmField
+        val WHOLE_FILE = intArrayOf(1, Int.MAX_VALUE)
+
+        @JvmStatic
+        fun empty(rootDir: File) = ChangeSet(rootDir, emptyList())
+
+        @Suppress("UNCHECKED_CAST")
+        @JvmStatic
+        fun fromMap(map: Map<String, Any?>): ChangeSet {
+            return ChangeSet(
+                map[KEY_ROOT_DIR] as File,
+                map[KEY_FILES] as List<File>,
+                map[KEY_CHANGED_LINES] as Map<File, IntArray>?,
+                map[KEY_OVERLAY_DIR] as File?,
+                map[KEY_DEPENDENTS] as List<File>? ?: emptyList(),
+                map[KEY_IMPACTED_LINES] as Map<File, IntArray>? ?: emptyMap()
+            )
+        }
+
+        /**
+         * Makes [changeSet] visible to the lint execution of [project].
+         */
+        @JvmStatic
+        fun publish(project: Project, changeSet: ChangeSet) {
+            project.extensions.extraProperties.set(CHANGE_SET_PROPERTY, changeSet.toMap())
+        }
+
+        /**
+         * Returns the change set published for [project], or null when no increment task prepared one.
+         */
+        @Suppress("UNCHECKED_CAST")
+        @JvmStatic
+        fun published(project: Project): ChangeSet? {
+            val ext = project.extensions.extraProperties
+            if (!ext.has(CHANGE_SET_PROPERTY)) {
+                return null
+            }
+            return fromMap(ext.get(CHANGE_SET_PROPERTY) as Map<String, Any?>)
+        }
+    }
+}
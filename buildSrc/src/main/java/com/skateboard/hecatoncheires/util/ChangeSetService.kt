@@ -0,0 +1,230 @@
+package com.skateboard.hecatoncheires.util
+
+import com.android.build.gradle.BaseExtension
+import com.skateboard.hecatoncheires.Constants.Companion.CACHE_DIR
+import com.skateboard.hecatoncheires.cache.DependencyIndex
+import com.skateboard.hecatoncheires.extension.HecatoncheiresExtension
+import org.gradle.api.Project
+import org.gradle.api.artifacts.ProjectDependency
+import org.gradle.api.invocation.Gradle
+import org.gradle.api.plugins.JavaPluginConvention
+import java.io.File
+import java.io.IOException
+import java.util.*
+
+/**
+ * Computes the change set once per build and shares it between the pmd task, every lint variant
+ * and every module applying the plugin. Each module only gets the files it owns.
+ */
+object ChangeSetService {
+
+    private const val STAGED_DIR = "hecatoncheires/staged"
+
+    private const val DEPENDENCY_INDEX = "dependencies.idx"
+
+    private val buildChangeSets = WeakHashMap<Gradle, BuildChangeSets>()
+
+    /**
+     * Returns the change set of the files owned by [project]. Staged snapshots are only written
+     * when the module enabled [HecatoncheiresExtension.stagedOnly], line ranges only when it
+     * enabled [HecatoncheiresExtension.changedLinesOnly].
+     */
+    @Synchronized
+    fun get(project: Project): ChangeSet {
+        val gradle = project.rootProject.gradle
+        var changeSets = buildChangeSets[gradle]
+        if (changeSets == null) {
+            changeSets = BuildChangeSets()
+            buildChangeSets[gradle] = changeSets
+        }
+        val extension = project.extensions.findByType(HecatoncheiresExtension::class.java)
+        val staged = extension != null && extension.stagedOnly
+        val changeSet = changeSets.changeSets.getOrPut(staged) {
+            GitUtil.readChangeSet(
+                project.rootDir,
+                if (staged) File(project.rootProject.buildDir, STAGED_DIR) else null
+            )
+        }
+        var moduleChangeSet = changeSet.copy(files = changeSet.files.filter { getOwner(project, it, changeSets) == project })
+        if (extension != null && extension.impactAnalysis) {
+            val upstream = getUpstreamProjects(project)
+            val upstreamFiles = changeSet.files.filter {
+                val owner = getOwner(project, it, changeSets)
+                owner != null && upstream.contains(owner)
+            }
+            if (moduleChangeSet.files.isNotEmpty() || upstreamFiles.isNotEmpty()) {
+                val impact = changeSets.impacts.getOrPut("${project.path}:$staged") {
+                    readImpact(project, moduleChangeSet, upstreamFiles)
+                }
+                moduleChangeSet = moduleChangeSet.copy(dependents = impact.dependents, impactedLines = impact.lines)
+            }
+        }
+        if (extension == null || !extension.changedLinesOnly) {
+            return moduleChangeSet
+        }
+        val lines = changeSets.changedLines.getOrPut(staged) {
+            GitUtil.readChangedLines(changeSet)
+        }
+        return moduleChangeSet.copy(changedLines = lines)
+    }
+
+    /**
+     * Returns the id of the HEAD commit the change sets of this build are based on.
+     */
+    @Synchronized
+    fun getHead(project: Project): String {
+        val gradle = project.rootProject.gradle
+        var changeSets = buildChangeSets[gradle]
+        if (changeSets == null) {
+            changeSets = BuildChangeSets()
+            buildChangeSets[gradle] = changeSets
+        }
+        return changeSets.head ?: GitUtil.readHead(project.rootDir).also { changeSets.head = it }
+    }
+
+    /**
+     * Updates the dependency index of [project] and returns the files of its source sets
+     * depending on its own changed files or on [upstreamFiles], the changed files of the modules
+     * it consumes, together with the lines naming the symbols they touched. Dependents of a
+     * staged change set are analyzed in their staged version as well.
+     */
+    private fun readImpact(project: Project, changeSet: ChangeSet, upstreamFiles: List<File>): Impact {
+        val index = DependencyIndex.load(
+            project.projectDir,
+            File(project.buildDir, "$CACHE_DIR${File.separator}$DEPENDENCY_INDEX")
+        )
+        val sources = LinkedHashSet<File>()
+        getSourceRoots(project).forEach { collectSources(project, it, sources) }
+        val changedFiles = changeSet.files.map { it.absoluteFile }
+        val previous = index.update(sources, changedFiles)
+        val symbols = HashSet(index.getSymbols(changedFiles, previous))
+        // other modules are not indexed here; their HEAD version stands in for the index
+        val headContents = GitUtil.readHeadContents(project.rootDir, upstreamFiles)
+        upstreamFiles.forEach {
+            symbols.addAll(DependencyIndex.getProvides(changeSet.toAnalysisFile(it)))
+            headContents[it]?.let { text -> symbols.addAll(DependencyIndex.getProvides(it, text)) }
+        }
+        val dependents = index.getDependents(symbols, changedFiles).toList()
+        index.save()
+        GitUtil.writeStagedSnapshots(changeSet, dependents)
+        val lines = mutableMapOf<File, IntArray>()
+        dependents.forEach {
+            val text = try {
+                changeSet.toAnalysisFile(it).readText()
+            } catch (e: IOException) {
+                return@forEach
+            }
+            lines[it] = DependencyIndex.getReferencingLines(text, symbols)
+        }
+        return Impact(dependents, lines)
+    }
+
+    /**
+     * Collects the indexed files below [root], leaving out build outputs, hidden directories
+     * and nested modules.
+     */
+    private fun collectSources(project: Project, root: File, sources: MutableSet<File>) {
+        if (root.isFile) {
+            if (DependencyIndex.isIndexed(root)) {
+                sources.add(root.absoluteFile)
+            }
+            return
+        }
+        root.listFiles()?.forEach {
+            if (it.isDirectory) {
+                if (!it.name.startsWith(".") && it != project.buildDir
+                    && project.rootProject.allprojects.none { other -> other.projectDir == it }
+                ) {
+                    collectSources(project, it, sources)
+                }
+            } else if (DependencyIndex.isIndexed(it)) {
+                sources.add(it.absoluteFile)
+            }
+        }
+    }
+
+    /**
+     * Returns the source directories and manifests of the source sets of [project], which
+     * cover those of all its variants, or its directory when it has no source sets.
+     */
+    fun getSourceRoots(project: Project): List<File> {
+        val android = project.extensions.findByType(BaseExtension::class.java)
+        if (android != null) {
+            return android.sourceSets.flatMap { sourceSet ->
+                listOf(
+                    sourceSet.java, sourceSet.resources, sourceSet.res, sourceSet.aidl,
+                    sourceSet.renderscript, sourceSet.assets
+                ).flatMap { it.srcDirs } + sourceSet.manifest.srcFile
+            }.map { it.absoluteFile }.distinct()
+        }
+        val java = project.convention.findPlugin(JavaPluginConvention::class.java)
+        if (java != null) {
+            return java.sourceSets.flatMap { it.allSource.srcDirs }.map { it.absoluteFile }.distinct()
+        }
+        return listOf(project.projectDir)
+    }
+
+    /**
+     * Returns the modules [project] depends on, directly or through other modules.
+     */
+    private fun getUpstreamProjects(project: Project): Set<Project> {
+        val upstream = LinkedHashSet<Project>()
+        val queue = ArrayDeque<Project>()
+        queue.add(project)
+        while (queue.isNotEmpty()) {
+            queue.poll().configurations.forEach { configuration ->
+                configuration.dependencies.withType(ProjectDependency::class.java).forEach {
+                    val dependency = it.dependencyProject
+                    if (dependency != project && upstream.add(dependency)) {
+                        queue.add(dependency)
+                    }
+                }
+            }
+        }
+        return upstream
+    }
+
+    /**
+     * Returns the module whose source sets hold [file], the one with the innermost source root
+     * when several do. Files outside every source set, like build scripts, belong to the module
+     * whose directory most closely contains them. Files below a build directory belong to no
+     * module.
+     */
+    private fun getOwner(project: Project, file: File, changeSets: BuildChangeSets): Project? {
+        var owner: Project? = null
+        var ownerRoot = 0
+        project.rootProject.allprojects.forEach { module ->
+            changeSets.sourceRoots.getOrPut(module.path) { getSourceRoots(module) }.forEach {
+                if (file.startsWith(it) && it.path.length > ownerRoot) {
+                    owner = module
+                    ownerRoot = it.path.length
+                }
+            }
+        }
+        if (owner == null) {
+            project.rootProject.allprojects.forEach {
+                if (file.startsWith(it.projectDir) && it.projectDir.path.length > ownerRoot) {
+                    owner = it
+                    ownerRoot = it.projectDir.path.length
+                }
+            }
+        }
+        val module = owner ?: return null
+        return if (file.startsWith(module.buildDir)) null else module
+    }
+
+    private class Impact(val dependents: List<File>, val lines: Map<File, IntArray>)
+
+    private class BuildChangeSets {
+
+        val changeSets = mutableMapOf<Boolean, ChangeSet>()
+
+        val changedLines = mutableMapOf<Boolean, Map<File, IntArray>>()
+
+        val impacts = mutableMapOf<String, Impact>()
+
+        val sourceRoots = mutableMapOf<String, List<File>>()
+
+        var head: String? = null
+    }
+}
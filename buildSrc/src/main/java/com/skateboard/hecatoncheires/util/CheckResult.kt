@@ -0,0 +1,178 @@
+package com.skateboard.hecatoncheires.util
+
+import org.gradle.api.Project
+import org.gradle.api.Task
+import java.io.*
+import java.util.*
+
+/**
+ * Machine-readable outcome of the increment checks, read by the pre-commit hook instead of
+ * scraping the console output.
+ *
+ * Every module records one entry per check, e.g. `:app.pmd.status=failed`, and `status` sums
+ * them up: `failed` as soon as one check failed, `passed` otherwise. Modules without changes
+ * record `skipped`, so a build that checked nothing still leaves a result behind. Each check
+ * task also keeps its own outcome in a fragment, so a task Gradle skips as up to date still
+ * has an entry.
+ */
+object CheckResult {
+
+    const val PASSED = "passed"
+
+    const val FAILED = "failed"
+
+    const val SKIPPED = "skipped"
+
+    private const val RESULT_FILE = "hecatoncheires/check-result.properties"
+
+    private const val FRAGMENT_DIR = "hecatoncheires/check-results"
+
+    private const val NAME = "name"
+
+    private const val STATUS = "status"
+
+    private const val REPORT = "report"
+
+    private const val MESSAGE = "message"
+
+    fun getResultFile(project: Project): File {
+        return File(project.rootProject.buildDir, RESULT_FILE)
+    }
+
+    /**
+     * The outcome of [task] alone. Check tasks declare it as an output, so it is kept when the
+     * task is up to date and restored with the other outputs from the build cache, see [restore].
+     */
+    fun getFragmentFile(task: Task): File {
+        return File(task.project.buildDir, "$FRAGMENT_DIR${File.separator}${task.name}.properties")
+    }
+
+    /**
+     * Runs [check] and records whether it passed. Failures are rethrown so Gradle still fails.
+     */
+    fun <T> record(task: Task, name: String, report: File?, check: () -> T): T {
+        return record(Target.of(task), name, report, check)
+    }
+
+    fun <T> record(target: Target, name: String, report: File?, check: () -> T): T {
+        try {
+            val result = check()
+            record(target, name, PASSED, report, null)
+            return result
+        } catch (t: Throwable) {
+            record(target, name, FAILED, report, t.message)
+            throw t
+        }
+    }
+
+    /**
+     * Records the outcome of [task] in the result file and in its fragment.
+     */
+    fun record(task: Task, name: String, status: String, report: File?, message: String?) {
+        record(Target.of(task), name, status, report, message)
+    }
+
+    fun record(target: Target, name: String, status: String, report: File?, message: String?) {
+        record(target.resultFile, target.projectPath, name, status, report, message)
+        val properties = Properties()
+        properties.setProperty(NAME, name)
+        properties.setProperty(STATUS, status)
+        if (report != null) {
+            // relative, the fragment may be restored from the cache into another checkout
+            properties.setProperty(REPORT, report.relativeToOrSelf(target.projectDir).path)
+        }
+        if (message != null) {
+            properties.setProperty(MESSAGE, message.lineSequence().first())
+        }
+        try {
+            target.fragmentFile.parentFile.mkdirs()
+            FileOutputStream(target.fragmentFile).use {
+                properties.store(it, "hecatoncheires check result of ${target.taskPath}")
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+        }
+    }
+
+    /**
+     * Records the outcome [task] left in its fragment again, for a task Gradle did not run
+     * because it was up to date or came from the build cache. Returns false when there is no
+     * fragment to restore.
+     */
+    fun restore(task: Task): Boolean {
+        val fragmentFile = getFragmentFile(task)
+        if (!fragmentFile.isFile) {
+            return false
+        }
+        val properties = Properties()
+        try {
+            FileInputStream(fragmentFile).use { properties.load(it) }
+        } catch (e: IOException) {
+            e.printStackTrace()
+            return false
+        }
+        val name = properties.getProperty(NAME) ?: return false
+        val status = properties.getProperty(STATUS) ?: return false
+        val report = properties.getProperty(REPORT)?.let { task.project.file(it) }
+        record(task.project, name, status, report, properties.getProperty(MESSAGE))
+        return true
+    }
+
+    fun record(project: Project, name: String, status: String, report: File?, message: String?) {
+        record(getResultFile(project), project.path, name, status, report, message)
+    }
+
+    @Synchronized
+    private fun record(resultFile: File, projectPath: String, name: String, status: String, report: File?, message: String?) {
+        val properties = Properties()
+        try {
+            if (resultFile.exists()) {
+                FileInputStream(resultFile).use { properties.load(it) }
+            }
+            val prefix = "$projectPath.$name"
+            properties.setProperty("$prefix.$STATUS", status)
+            if (report != null) {
+                properties.setProperty("$prefix.$REPORT", report.absolutePath)
+            }
+            if (message != null) {
+                properties.setProperty("$prefix.$MESSAGE", message.lineSequence().first())
+            } else {
+                properties.remove("$prefix.$MESSAGE")
+            }
+            val failed = properties.stringPropertyNames().any {
+                it.endsWith(".$STATUS") && properties.getProperty(it) == FAILED
+            }
+            properties.setProperty(STATUS, if (failed) FAILED else PASSED)
+            resultFile.parentFile.mkdirs()
+            FileOutputStream(resultFile).use { properties.store(it, "hecatoncheires check result") }
+        } catch (e: IOException) {
+            e.printStackTrace()
+        }
+    }
+
+    /**
+     * Where the outcome of one check task goes, for checks that finish as Worker API work and
+     * have no task or project at hand anymore.
+     */
+    class Target(
+        val resultFile: File,
+        val fragmentFile: File,
+        val projectDir: File,
+        val projectPath: String,
+        val taskPath: String
+    ) : Serializable {
+
+        companion object {
+
+            fun of(task: Task): Target {
+                return Target(
+                    getResultFile(task.project),
+                    getFragmentFile(task),
+                    task.project.projectDir,
+                    task.project.path,
+                    task.path
+                )
+            }
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.skateboard.hecatoncheires.util
+
+import com.skateboard.hecatoncheires.cache.Finding
+import com.skateboard.hecatoncheires.cache.ResultCache
+import org.gradle.api.logging.Logging
+import java.io.*
+import java.util.*
+import javax.xml.stream.XMLOutputFactory
+
+/**
+ * Project-wide report of one tool, kept up to date by the increment checks.
+ *
+ * The findings are partitioned by source file. Each partition below `<dir>/partitions` holds
+ * the xml and html fragments of one file, rendered when the file was checked, and `<dir>/index`
+ * lists the files that have findings. A run renders the fragments of the files it checked
+ * only; `report.xml` and `report.html` are then put together by copying the fragments in path
+ * order, without reading any finding again. Partitions of deleted files are dropped.
+ *
+ * A report starts out empty and only learns about files as they get checked; [seed] fills it
+ * from one complete run, see the `seedfullreport` task.
+ */
+class FullReport(private val dir: File, private val projectDir: File) {
+
+    private val partitionsDir = File(dir, "partitions")
+
+    private val indexFile = File(dir, "index")
+
+    private val logger = Logging.getLogger(FullReport::class.java)
+
+    /**
+     * Renders the partitions of the files in [findings]; files without findings are dropped
+     * from the report.
+     */
+    fun update(findings: Map<File, List<Finding>>) {
+        val paths = readIndex()
+        findings.forEach { (file, fileFindings) ->
+            val path = toPath(file)
+            if (fileFindings.isEmpty()) {
+                deletePartition(path)
+                paths.remove(path)
+            } else if (writePartition(path, fileFindings)) {
+                paths.add(path)
+            }
+        }
+        writeIndex(paths)
+    }
+
+    /**
+     * Replaces the whole report with [findings], the result of checking every file.
+     */
+    fun seed(findings: Map<File, List<Finding>>) {
+        partitionsDir.deleteRecursively()
+        indexFile.delete()
+        update(findings)
+    }
+
+    /**
+     * Puts the xml and html views together from the rendered partitions.
+     */
+    fun render(tool: String) {
+        val paths = readIndex()
+        val gone = paths.filter { !File(projectDir, it).exists() }
+        if (gone.isNotEmpty()) {
+            // the files are gone, and so are their findings
+            gone.forEach { deletePartition(it) }
+            paths.removeAll(gone)
+            writeIndex(paths)
+        }
+        dir.mkdirs()
+        try {
+            writeXml(File(dir, "report.xml"), tool, paths)
+            writeHtml(File(dir, "report.html"), tool, paths)
+        } catch (e: IOException) {
+            logger.warn("Could not write the full $tool report to $dir", e)
+        }
+    }
+
+    private fun toPath(file: File): String {
+        return file.absoluteFile.relativeTo(projectDir.absoluteFile).invariantSeparatorsPath
+    }
+
+    private fun readIndex(): TreeSet<String> {
+        val paths = TreeSet<String>()
+        if (!indexFile.isFile) {
+            // nothing rendered yet, or partitions of an older version
+            partitionsDir.deleteRecursively()
+            return paths
+        }
+        try {
+            val lines = indexFile.readLines(Charsets.UTF_8)
+            if (lines.firstOrNull() == VERSION) {
+                paths.addAll(lines.drop(1).filter { it.isNotEmpty() })
+            } else {
+                // written by another version: start over
+                partitionsDir.deleteRecursively()
+            }
+        } catch (e: IOException) {
+            logger.warn("Could not read the full report index $indexFile, starting over", e)
+            partitionsDir.deleteRecursively()
+        }
+        return paths
+    }
+
+    private fun writeIndex(paths: Set<String>) {
+        dir.mkdirs()
+        val temp = File(dir, "${indexFile.name}.tmp")
+        try {
+            temp.writeText((listOf(VERSION) + paths).joinToString("\n", postfix = "\n"), Charsets.UTF_8)
+            if (!temp.renameTo(indexFile)) {
+                indexFile.delete()
+                temp.renameTo(indexFile)
+            }
+        } catch (e: IOException) {
+            logger.warn("Could not write the full report index $indexFile", e)
+            temp.delete()
+        }
+    }
+
+    /**
+     * Renders the fragments of one file, written aside and renamed so a killed build never
+     * leaves half a partition behind.
+     */
+    private fun writePartition(path: String, findings: List<Finding>): Boolean {
+        val xml = getPartition(path, XML)
+        val html = getPartition(path, HTML)
+        xml.parentFile.mkdirs()
+        val xmlTemp = File(xml.parentFile, "${xml.name}.tmp")
+        val htmlTemp = File(html.parentFile, "${html.name}.tmp")
+        return try {
+            writeXmlFragment(xmlTemp, path, findings)
+            writeHtmlFragment(htmlTemp, path, findings)
+            replace(xmlTemp, xml)
+            replace(htmlTemp, html)
+            true
+        } catch (e: Exception) {
+            logger.warn("Could not write the full report partition of $path", e)
+            xmlTemp.delete()
+            htmlTemp.delete()
+            false
+        }
+    }
+
+    private fun replace(temp: File, file: File) {
+        if (!temp.renameTo(file)) {
+            file.delete()
+            temp.renameTo(file)
+        }
+    }
+
+    private fun deletePartition(path: String) {
+        getPartition(path, XML).delete()
+        getPartition(path, HTML).delete()
+    }
+
+    private fun getPartition(path: String, extension: String): File {
+        return File(partitionsDir, "${ResultCache.hash(path)}.$extension")
+    }
+
+    private fun writeXmlFragment(fragment: File, path: String, findings: List<Finding>) {
+        BufferedOutputStream(FileOutputStream(fragment)).use { output ->
+            val writer = XMLOutputFactory.newInstance().createXMLStreamWriter(output, "UTF-8")
+            writer.writeCharacters("\n    ")
+            writer.writeStartElement("file")
+            writer.writeAttribute("name", path)
+            findings.forEach {
+                writer.writeCharacters("\n        ")
+                writer.writeStartElement("finding")
+                writer.writeAttribute("rule", it.rule)
+                if (it.category.isNotEmpty()) {
+                    writer.writeAttribute("category", it.category)
+                }
+                writer.writeAttribute("severity", it.severity)
+                writer.writeAttribute("beginline", it.beginLine.toString())
+                writer.writeAttribute("endline", it.endLine.toString())
+                writer.writeCharacters(it.message)
+                writer.writeEndElement()
+            }
+            writer.writeCharacters("\n    ")
+            writer.writeEndElement()
+            writer.close()
+        }
+    }
+
+    private fun writeHtmlFragment(fragment: File, path: String, findings: List<Finding>) {
+        BufferedWriter(OutputStreamWriter(FileOutputStream(fragment), "UTF-8")).use { writer ->
+            findings.forEach {
+                writer.write("<tr>\n")
+                writer.write("<td align=\"center\"></td>\n")
+                writer.write("<td width=\"*%\">${escape(path)}</td>\n")
+                writer.write("<td align=\"center\" width=\"5%\">${it.beginLine}</td>\n")
+                writer.write("<td>${escape(it.rule)}</td>\n")
+                writer.write("<td width=\"*\">${escape(it.message)}</td>\n")
+                writer.write("</tr>\n")
+            }
+        }
+    }
+
+    private fun writeXml(xml: File, tool: String, paths: Set<String>) {
+        BufferedOutputStream(FileOutputStream(xml)).use { output ->
+            output.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<report tool=\"${escape(tool)}\">"
+                .toByteArray(Charsets.UTF_8))
+            paths.forEach { copyPartition(it, XML, output) }
+            output.write("\n</report>\n".toByteArray(Charsets.UTF_8))
+        }
+    }
+
+    private fun writeHtml(html: File, tool: String, paths: Set<String>) {
+        BufferedOutputStream(FileOutputStream(html)).use { output ->
+            // rows are rendered per file, so numbering and striping are left to the browser
+            output.write(("<html><head><title>$tool</title><style>\n" +
+                    "table { counter-reset: row; }\n" +
+                    "tr:nth-child(even) { background-color: lightgrey; }\n" +
+                    "tr + tr td:first-child::before { counter-increment: row; content: counter(row); }\n" +
+                    "</style></head><body>\n" +
+                    "<center><h3>$tool full report</h3></center>" +
+                    "<table align=\"center\" cellspacing=\"0\" cellpadding=\"3\"><tr>\n" +
+                    "<th>#</th><th>File</th><th>Line</th><th>Rule</th><th>Problem</th></tr>\n")
+                .toByteArray(Charsets.UTF_8))
+            paths.forEach { copyPartition(it, HTML, output) }
+            output.write("</table></body></html>\n".toByteArray(Charsets.UTF_8))
+        }
+    }
+
+    private fun copyPartition(path: String, extension: String, output: OutputStream) {
+        val partition = getPartition(path, extension)
+        if (partition.isFile) {
+            partition.inputStream().use { it.copyTo(output) }
+        }
+    }
+
+    private fun escape(text: String): String {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;")
+    }
+
+    companion object {
+
+        private const val VERSION = "2"
+
+        private const val XML = "xml"
+
+        private const val HTML = "html"
+
+        private const val FULL_REPORT_DIR = "hecatoncheires/full-report"
+
+        /**
+         * Returns the full report of [tool] for the module whose build dir is [buildDir].
+         */
+        @JvmStatic
+        fun of(buildDir: File, projectDir: File, tool: String): FullReport {
+            return FullReport(File(buildDir, "$FULL_REPORT_DIR${File.separator}$tool"), projectDir)
+        }
+    }
+}
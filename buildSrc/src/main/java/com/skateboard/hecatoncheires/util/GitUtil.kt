@@ -1,58 +1,329 @@
 package com.skateboard.hecatoncheires.util
 
+import com.skateboard.hecatoncheires.Constants.Companion.INCREMENT_CHECK
+import org.eclipse.jgit.dircache.DirCacheIterator
+import org.eclipse.jgit.diff.DiffAlgorithm
+import org.eclipse.jgit.diff.EditList
+import org.eclipse.jgit.diff.RawText
+import org.eclipse.jgit.diff.RawTextComparator
+import org.eclipse.jgit.lib.FileMode
+import org.eclipse.jgit.lib.IndexDiff
+import org.eclipse.jgit.lib.Repository
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder
+import org.eclipse.jgit.submodule.SubmoduleWalk
+import org.eclipse.jgit.treewalk.EmptyTreeIterator
+import org.eclipse.jgit.treewalk.FileTreeIterator
+import org.eclipse.jgit.treewalk.TreeWalk
+import org.eclipse.jgit.treewalk.filter.TreeFilter
 import org.gradle.api.Project
 import java.io.*
+import java.util.*
 
 object GitUtil {
 
-    fun getCommitFiles(): List<File> {
+    private const val HEAD = "HEAD"
 
-        val command =
-            arrayOf("/bin/bash", "-c", "git diff --name-only --diff-filter=ACMRTUXB HEAD")
-
-        val process = Runtime.getRuntime().exec(command)
-
-        process.waitFor()
-
-        val commitFileList = mutableListOf<File>()
+    /**
+     * Returns the files of [project] changed against HEAD, computed once per build by
+     * [ChangeSetService].
+     */
+    fun getCommitFiles(project: Project): List<File> {
+        return ChangeSetService.get(project).files
+    }
 
+    /**
+     * Reads the index and the HEAD tree in-process instead of forking `git diff`. Matches
+     * `git diff --name-only --diff-filter=ACMRTUXB HEAD`: deleted files are left out.
+     *
+     * With a [stagedOverlayDir] only the staged changes are returned, like `git diff --cached`,
+     * and their index blobs are written below that directory for lint and pmd to analyze.
+     * Submodules are left out either way.
+     */
+    fun readChangeSet(rootDir: File, stagedOverlayDir: File? = null): ChangeSet {
         try {
-            val inputReader = BufferedReader(InputStreamReader(process.inputStream))
-
+            val builder = FileRepositoryBuilder().readEnvironment().findGitDir(rootDir)
+            if (builder.gitDir == null) {
+                return ChangeSet.empty(rootDir)
+            }
+            builder.build().use { repository ->
+                val workTree = repository.workTree
+                if (stagedOverlayDir != null) {
+                    return readStagedChangeSet(repository, stagedOverlayDir)
+                }
+                val indexDiff = IndexDiff(repository, HEAD, FileTreeIterator(repository))
+                // a submodule is a commit id, not a file to check
+                indexDiff.setIgnoreSubmoduleMode(SubmoduleWalk.IgnoreSubmoduleMode.ALL)
+                indexDiff.diff()
+                val paths = TreeSet<String>()
+                paths.addAll(indexDiff.added)
+                paths.addAll(indexDiff.changed)
+                paths.addAll(indexDiff.modified)
+                paths.addAll(indexDiff.conflicting)
+                paths.removeAll(indexDiff.missing)
+                paths.removeAll(indexDiff.removed)
+                val dirCache = repository.readDirCache()
+                paths.removeAll { dirCache.getEntry(it)?.fileMode == FileMode.GITLINK }
+                return ChangeSet(workTree, paths.map { File(workTree, it) })
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+        return ChangeSet.empty(rootDir)
+    }
 
-            var fileName = inputReader.readLine()
+    /**
+     * Returns the id of the HEAD commit, empty outside of a git work tree or before the first
+     * commit.
+     */
+    fun readHead(rootDir: File): String {
+        try {
+            val builder = FileRepositoryBuilder().readEnvironment().findGitDir(rootDir)
+            if (builder.gitDir == null) {
+                return ""
+            }
+            builder.build().use { repository ->
+                return repository.resolve(HEAD)?.name ?: ""
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+        return ""
+    }
 
-            while (fileName != null) {
+    /**
+     * Walks the HEAD tree against the index only, the working tree is never touched.
+     */
+    private fun readStagedChangeSet(repository: Repository, overlayDir: File): ChangeSet {
+        val workTree = repository.workTree
+        val files = mutableListOf<File>()
+        overlayDir.deleteRecursively()
+        repository.newObjectReader().use { reader ->
+            TreeWalk(reader).use { treeWalk ->
+                treeWalk.isRecursive = true
+                val headTree = repository.resolve("$HEAD^{tree}")
+                if (headTree != null) {
+                    treeWalk.addTree(headTree)
+                } else {
+                    treeWalk.addTree(EmptyTreeIterator())
+                }
+                treeWalk.addTree(DirCacheIterator(repository.readDirCache()))
+                treeWalk.filter = TreeFilter.ANY_DIFF
+                while (treeWalk.next()) {
+                    // deleted from the index
+                    if (treeWalk.getFileMode(1) == FileMode.MISSING) {
+                        continue
+                    }
+                    // a submodule commit has no blob to write
+                    if (treeWalk.getFileMode(0) == FileMode.GITLINK || treeWalk.getFileMode(1) == FileMode.GITLINK) {
+                        continue
+                    }
+                    val snapshot = File(overlayDir, treeWalk.pathString)
+                    snapshot.parentFile.mkdirs()
+                    val outputStream = FileOutputStream(snapshot)
+                    try {
+                        reader.open(treeWalk.getObjectId(1)).copyTo(outputStream)
+                    } finally {
+                        outputStream.close()
+                    }
+                    files.add(File(workTree, treeWalk.pathString))
+                }
+            }
+        }
+        return ChangeSet(workTree, files, overlayDir = overlayDir)
+    }
 
-                commitFileList.add(File(fileName))
-                fileName = inputReader.readLine()
+    /**
+     * Writes the index blobs of [files] below the overlay dir of the staged [changeSet], for
+     * files that have to be analyzed along with the staged changes without being part of them.
+     */
+    fun writeStagedSnapshots(changeSet: ChangeSet, files: Collection<File>) {
+        val overlayDir = changeSet.overlayDir ?: return
+        try {
+            val builder = FileRepositoryBuilder().readEnvironment().findGitDir(changeSet.rootDir)
+            if (builder.gitDir == null) {
+                return
             }
+            builder.build().use { repository ->
+                val dirCache = repository.readDirCache()
+                val workTree = repository.workTree
+                repository.newObjectReader().use { reader ->
+                    files.forEach { file ->
+                        val path = file.relativeTo(workTree).invariantSeparatorsPath
+                        val entry = dirCache.getEntry(path) ?: return@forEach
+                        val snapshot = File(overlayDir, path)
+                        snapshot.parentFile.mkdirs()
+                        val outputStream = FileOutputStream(snapshot)
+                        try {
+                            reader.open(entry.objectId).copyTo(outputStream)
+                        } finally {
+                            outputStream.close()
+                        }
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+    }
 
-            inputReader.close()
+    /**
+     * Computes the changed line ranges of every file in [changeSet], the in-process equivalent
+     * of the new-side hunks of `git diff -U0 HEAD` (`--cached` for a staged change set). Files
+     * missing from HEAD count as fully changed.
+     */
+    fun readChangedLines(changeSet: ChangeSet): Map<File, IntArray> {
+        val changedLines = mutableMapOf<File, IntArray>()
+        try {
+            val builder = FileRepositoryBuilder().readEnvironment().findGitDir(changeSet.rootDir)
+            if (builder.gitDir == null) {
+                return changedLines
+            }
+            builder.build().use { repository ->
+                val headTree = repository.resolve("$HEAD^{tree}")
+                val workTree = repository.workTree
+                repository.newObjectReader().use { reader ->
+                    changeSet.files.forEach { file ->
+                        val path = file.relativeTo(workTree).invariantSeparatorsPath
+                        val treeWalk = if (headTree != null) TreeWalk.forPath(reader, path, headTree) else null
+                        if (treeWalk == null) {
+                            changedLines[file] = ChangeSet.WHOLE_FILE
+                        } else {
+                            val oldText = RawText(reader.open(treeWalk.getObjectId(0)).bytes)
+                            val newText = RawText(changeSet.toAnalysisFile(file))
+                            changedLines[file] = toRanges(diff(oldText, newText))
+                        }
+                    }
+                }
+            }
         } catch (e: IOException) {
             e.printStackTrace()
         } catch (e: Exception) {
             e.printStackTrace()
         }
+        return changedLines
+    }
 
-        return commitFileList
+    /**
+     * Returns the HEAD version of those [files] that exist in HEAD.
+     */
+    fun readHeadContents(rootDir: File, files: Collection<File>): Map<File, String> {
+        val contents = mutableMapOf<File, String>()
+        try {
+            val builder = FileRepositoryBuilder().readEnvironment().findGitDir(rootDir)
+            if (builder.gitDir == null) {
+                return contents
+            }
+            builder.build().use { repository ->
+                val headTree = repository.resolve("$HEAD^{tree}") ?: return contents
+                val workTree = repository.workTree
+                repository.newObjectReader().use { reader ->
+                    files.forEach { file ->
+                        val path = file.relativeTo(workTree).invariantSeparatorsPath
+                        val treeWalk = TreeWalk.forPath(reader, path, headTree) ?: return@forEach
+                        contents[file] = String(reader.open(treeWalk.getObjectId(0)).bytes, Charsets.UTF_8)
+                    }
+                }
+            }
+        } catch (e: IOException) {
+            e.printStackTrace()
+        } catch (e: Exception) {
+            e.printStackTrace()
+        }
+        return contents
     }
 
-    fun getCommitFilesPathForPMD(): List<String> {
+    private fun diff(oldText: RawText, newText: RawText): EditList {
+        return DiffAlgorithm.getAlgorithm(DiffAlgorithm.SupportedAlgorithm.HISTOGRAM)
+            .diff(RawTextComparator.DEFAULT, oldText, newText)
+    }
 
-        val pathList = mutableListOf<String>()
-        getCommitFiles().forEach {
-            pathList.add("**/${it.name}")
+    private fun toRanges(edits: EditList): IntArray {
+        val ranges = mutableListOf<Int>()
+        edits.forEach {
+            // pure deletions leave no line behind on the new side
+            if (it.endB > it.beginB) {
+                ranges.add(it.beginB + 1)
+                ranges.add(it.endB)
+            }
         }
-        return pathList
+        return ranges.toIntArray()
     }
 
+    /**
+     * Returns the changed files of [project] pmd checks, as the files to analyze: java sources
+     * and velocity templates, nothing below a resource folder.
+     */
+    fun getCommitFilesForPMD(project: Project): List<File> {
+        val changeSet = ChangeSetService.get(project)
+        return changeSet.files
+            .filter { it.extension == "java" || it.extension == "vm" }
+            .filter { it.parentFile?.parentFile?.name != "res" }
+            .map { changeSet.toAnalysisFile(it) }
+    }
 
-    fun preparePreCommitHook(project: Project, excludeTasks: String = "") {
+
+    fun hasPreCommitHook(project: Project): Boolean {
+        return File(project.rootDir.absolutePath, ".git/hooks/pre-commit").exists()
+    }
+
+    /**
+     * With [keepWarm] the hook always goes through the Gradle daemon, where the lint class
+     * loader stays resident between commits. An up to date hook is left untouched.
+     *
+     * The hook blocks the commit when Gradle fails or leaves no result behind; only a build
+     * without the `incrementcheck` task, i.e. the plugin is no longer applied, lets it through.
+     */
+    fun preparePreCommitHook(project: Project, excludeTasks: String = "", keepWarm: Boolean = false) {
 
 
         val hookFile = File(project.rootDir.absolutePath, ".git/hooks/pre-commit")
         try {
+            val rootProject = project.rootDir.absolutePath
+            val resultFile = CheckResult.getResultFile(project).absolutePath
+            val daemon = if (keepWarm) "--daemon " else ""
+            // --continue checks every module, --parallel several modules at once, each lint run on a
+            // lint class loader of its own (see LintClassLoaderPool)
+            val hookFileContent = "#!/bin/sh\n" +
+                    "RESULT=\"$resultFile\"\n" +
+                    "LOG=\$(mktemp)\n" +
+                    "rm -f \"\$RESULT\"\n" +
+                    "echo start pmd and lint check\n" +
+                    // sh has no pipefail, so the exit status is passed around tee in a file
+                    "{ $rootProject${File.separator}gradlew $daemon--continue --parallel $INCREMENT_CHECK $excludeTasks 2>&1; " +
+                    "echo \$? > \"\$LOG.status\"; } | tee \"\$LOG\"\n" +
+                    "STATUS=\$(cat \"\$LOG.status\")\n" +
+                    "NOT_FOUND=\$(grep -c \"Task '$INCREMENT_CHECK' not found\" \"\$LOG\")\n" +
+                    "rm -f \"\$LOG\" \"\$LOG.status\"\n" +
+                    "if [ \"\$STATUS\" -ne 0 ] && [ \"\$NOT_FOUND\" -gt 0 ]; then\n" +
+                    "\t# the plugin is no longer applied\n" +
+                    "\texit 0\n" +
+                    "fi\n" +
+                    "if [ \"\$STATUS\" -ne 0 ]; then\n" +
+                    "\techo pmd and lint check failed\n" +
+                    "\tif [ -f \"\$RESULT\" ]; then\n" +
+                    "\t\tgrep -E \"\\.status=${CheckResult.FAILED}|\\.report=\" \"\$RESULT\"\n" +
+                    "\tfi\n" +
+                    "\texit 1\n" +
+                    "fi\n" +
+                    "if [ ! -f \"\$RESULT\" ]; then\n" +
+                    "\techo no pmd and lint check result in \$RESULT\n" +
+                    "\texit 1\n" +
+                    "fi\n" +
+                    "if grep -q \"^status=${CheckResult.FAILED}\" \"\$RESULT\"; then\n" +
+                    "\techo found pmd or lint issue, see \$RESULT\n" +
+                    "\tgrep -E \"\\.status=${CheckResult.FAILED}|\\.report=\" \"\$RESULT\"\n" +
+                    "\texit 1\n" +
+                    "fi\n" +
+                    "exit 0\n"
+
+            if (hookFile.exists() && hookFile.readText() == hookFileContent) {
+                return
+            }
+            // a new file, so that a running hook keeps reading the old one
             if (hookFile.exists()) {
                 hookFile.delete()
             }
@@ -61,31 +332,6 @@ object GitUtil {
             }
             hookFile.createNewFile()
             Runtime.getRuntime().exec("chmod 777 ${hookFile.absolutePath}")
-            val rootProject = project.rootDir.absolutePath
-            val hookFileContent = "#!/bin/sh\n" +
-                    "TASKS=\$($rootProject${File.separator}gradlew tasks)\n" +
-                    "if [[ \$TASKS =~ \"incrementlint\" ]]; then\n" +
-                    "\techo start pmd check\n" +
-                    "\tPMDOUTPUT=\$($rootProject${File.separator}gradlew pmdcheck)\n" +
-                    "\tif [[ \$PMDOUTPUT =~ \"pmdcheck FAILED\" ]]; then\n" +
-                    "\t\techo found pmd issue\n" +
-                    "\t\texit 1\n" +
-                    "\tfi\n" +
-                    "\tif [[ \$PMDOUTPUT =~ \"Task 'pmdcheck' not found\" ]]; then\n" +
-                    "\t\texit 0\n" +
-                    "\tfi\n" +
-                    "\techo start lint check\n" +
-                    "\tOUTPUT=\$($rootProject${File.separator}gradlew incrementlint $excludeTasks)\n" +
-                    "\tif [[ \$OUTPUT =~ \"lint no issues found\" ]]; then\n" +
-                    "\t\texit 0\n" +
-                    "\telse\n" +
-                    "\t\techo \$OUTPUT\n" +
-                    "\t\texit 1\n" +
-                    "\tfi\n" +
-                    "else\n" +
-                    "\texit 0\n" +
-                    "fi\n"
-
             val fileWriter = BufferedWriter(OutputStreamWriter(FileOutputStream(hookFile)))
 
             fileWriter.write(hookFileContent)
@@ -0,0 +1,139 @@
+package com.skateboard.hecatoncheires.util
+
+import com.skateboard.hecatoncheires.cache.Finding
+import org.w3c.dom.Element
+import java.io.*
+import javax.xml.parsers.DocumentBuilderFactory
+import javax.xml.transform.OutputKeys
+import javax.xml.transform.TransformerFactory
+import javax.xml.transform.dom.DOMSource
+import javax.xml.transform.stream.StreamResult
+
+data class PmdViolation(
+    val file: File,
+    val beginLine: Int,
+    val endLine: Int,
+    val rule: String,
+    val ruleSet: String,
+    val priority: Int,
+    val message: String
+) {
+
+    fun toFinding(): Finding {
+        return Finding(rule, ruleSet, priority.toString(), beginLine, -1, -1, endLine, -1, -1, message)
+    }
+
+    companion object {
+
+        fun fromFinding(file: File, finding: Finding): PmdViolation {
+            return PmdViolation(
+                file,
+                finding.beginLine,
+                finding.endLine,
+                finding.rule,
+                finding.category,
+                finding.severity.toIntOrNull() ?: 0,
+                finding.message
+            )
+        }
+    }
+}
+
+/**
+ * Reads and writes the reports of the pmd task.
+ */
+object PmdReport {
+
+    private const val FILE = "file"
+
+    private const val VIOLATION = "violation"
+
+    fun read(xmlReport: File): List<PmdViolation> {
+        val violations = mutableListOf<PmdViolation>()
+        if (!xmlReport.exists()) {
+            return violations
+        }
+        val document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(xmlReport)
+        val fileNodes = document.getElementsByTagName(FILE)
+        for (i in 0 until fileNodes.length) {
+            val fileElement = fileNodes.item(i) as Element
+            val file = File(fileElement.getAttribute("name"))
+            val violationNodes = fileElement.getElementsByTagName(VIOLATION)
+            for (j in 0 until violationNodes.length) {
+                violations.add(toViolation(file, violationNodes.item(j) as Element))
+            }
+        }
+        return violations
+    }
+
+    /**
+     * Writes [violations] in the xml format pmd uses, grouped by file.
+     */
+    fun writeXml(xmlReport: File, violations: List<PmdViolation>) {
+        xmlReport.parentFile?.mkdirs()
+        val document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument()
+        val root = document.createElement("pmd")
+        document.appendChild(root)
+        violations.groupBy { it.file }.forEach { (file, fileViolations) ->
+            val fileElement = document.createElement(FILE)
+            fileElement.setAttribute("name", file.path)
+            fileViolations.forEach {
+                val violationElement = document.createElement(VIOLATION)
+                violationElement.setAttribute("beginline", it.beginLine.toString())
+                violationElement.setAttribute("endline", it.endLine.toString())
+                violationElement.setAttribute("rule", it.rule)
+                violationElement.setAttribute("ruleset", it.ruleSet)
+                violationElement.setAttribute("priority", it.priority.toString())
+                violationElement.textContent = it.message
+                fileElement.appendChild(violationElement)
+            }
+            root.appendChild(fileElement)
+        }
+        val transformer = TransformerFactory.newInstance().newTransformer()
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8")
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes")
+        transformer.transform(DOMSource(document), StreamResult(xmlReport))
+    }
+
+    /**
+     * Writes [violations] as an html table laid out like the one pmd generates.
+     */
+    fun writeHtml(htmlReport: File, violations: List<PmdViolation>) {
+        htmlReport.parentFile?.mkdirs()
+        val writer = BufferedWriter(OutputStreamWriter(FileOutputStream(htmlReport), "UTF-8"))
+        try {
+            writer.write("<html><head><title>PMD</title></head><body>\n")
+            writer.write("<center><h3>PMD report</h3></center>")
+            writer.write("<center><h3>Problems found</h3></center>")
+            writer.write("<table align=\"center\" cellspacing=\"0\" cellpadding=\"3\"><tr>\n")
+            writer.write("<th>#</th><th>File</th><th>Line</th><th>Problem</th></tr>\n")
+            violations.forEachIndexed { index, violation ->
+                writer.write(if (index % 2 == 0) "<tr bgcolor=\"lightgrey\">\n" else "<tr>\n")
+                writer.write("<td align=\"center\">${index + 1}</td>\n")
+                writer.write("<td width=\"*%\">${escape(violation.file.path)}</td>\n")
+                writer.write("<td align=\"center\" width=\"5%\">${violation.beginLine}</td>\n")
+                writer.write("<td width=\"*\">${escape(violation.message)}</td>\n")
+                writer.write("</tr>\n")
+            }
+            writer.write("</table></body></html>\n")
+        } finally {
+            writer.close()
+        }
+    }
+
+    private fun toViolation(file: File, element: Element): PmdViolation {
+        return PmdViolation(
+            file,
+            element.getAttribute("beginline").toIntOrNull() ?: -1,
+            element.getAttribute("endline").toIntOrNull() ?: -1,
+            element.getAttribute("rule"),
+            element.getAttribute("ruleset"),
+            element.getAttribute("priority").toIntOrNull() ?: 0,
+            element.textContent.trim()
+        )
+    }
+
+    private fun escape(text: String): String {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+    }
+}
@@ -0,0 +1,80 @@
+package com.skateboard.hecatoncheires.util
+
+import com.skateboard.hecatoncheires.Constants.Companion.SOURCE_BUFFER_PROPERTY
+import org.gradle.api.Project
+import java.io.File
+import java.io.IOException
+
+/**
+ * The contents of the files a combined check analyzes, read once and shared by pmd and lint.
+ *
+ * Pmd parses the files from the buffer, and lint's client serves its reads from it, e.g. of
+ * manifest and resource files. Lint's Java and Kotlin parsers do not go through the client:
+ * they read the files (the staged snapshots with stagedOnly) from disk themselves, so sources
+ * are still read twice.
+ *
+ * Both run in class loaders of their own, so the buffer is handed over as a map from absolute
+ * path to file bytes in the project's extra properties, like [ChangeSet.publish]. Files missing
+ * from the buffer are read from disk as usual.
+ */
+object SourceBuffer {
+
+    private const val BOM = '\uFEFF'
+
+    /**
+     * Reads the analysis files and dependents of [changeSet] and publishes them for [project].
+     */
+    fun publish(project: Project, changeSet: ChangeSet) {
+        val buffer = HashMap<String, ByteArray>()
+        (changeSet.analysisFiles + changeSet.dependents.map { changeSet.toAnalysisFile(it) }).forEach {
+            try {
+                if (it.isFile) {
+                    buffer[it.absolutePath] = it.readBytes()
+                }
+            } catch (e: IOException) {
+                e.printStackTrace()
+            }
+        }
+        project.extensions.extraProperties.set(SOURCE_BUFFER_PROPERTY, buffer)
+    }
+
+    /**
+     * Publishes the buffer of [project] unless a check of the same `incrementcheck` did already.
+     */
+    @Synchronized
+    fun publishOnce(project: Project, changeSet: ChangeSet) {
+        if (published(project) == null) {
+            publish(project, changeSet)
+        }
+    }
+
+    /**
+     * Drops the buffer of [project] once the checks are done.
+     */
+    fun clear(project: Project) {
+        project.extensions.extraProperties.set(SOURCE_BUFFER_PROPERTY, null)
+    }
+
+    /**
+     * Returns the buffer published for [project], or null outside of a combined check.
+     */
+    @Suppress("UNCHECKED_CAST")
+    @JvmStatic
+    fun published(project: Project): Map<String, ByteArray>? {
+        val ext = project.extensions.extraProperties
+        if (!ext.has(SOURCE_BUFFER_PROPERTY)) {
+            return null
+        }
+        return ext.get(SOURCE_BUFFER_PROPERTY) as Map<String, ByteArray>?
+    }
+
+    /**
+     * Decodes buffered source bytes the way the checked sources are written: utf-8, with an
+     * optional byte order mark.
+     */
+    @JvmStatic
+    fun decode(bytes: ByteArray): String {
+        val text = String(bytes, Charsets.UTF_8)
+        return if (text.isNotEmpty() && text[0] == BOM) text.substring(1) else text
+    }
+}
@@ -0,0 +1,120 @@
+package com.skateboard.hecatoncheires.cache
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class DependencyIndexTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var rootDir: File
+
+    private lateinit var indexFile: File
+
+    private lateinit var foo: File
+
+    private lateinit var bar: File
+
+    private lateinit var baz: File
+
+    @Before
+    fun setUp() {
+        rootDir = folder.newFolder("app")
+        indexFile = File(folder.root, "dependencies.idx")
+        foo = source("src/main/java/com/a/Foo.java", "package com.a;\n\npublic class Foo {}\n")
+        bar = source("src/main/java/com/b/Bar.java", "package com.b;\n\nimport com.a.Foo;\n\nclass Bar {\n    Foo foo;\n}\n")
+        baz = source("src/main/java/com/b/Baz.java", "package com.b;\n\nclass Baz {}\n")
+    }
+
+    @Test
+    fun findsTheFilesReferencingAChangedType() {
+        val index = DependencyIndex.load(rootDir, indexFile)
+        val previous = index.update(listOf(foo, bar, baz), listOf(foo))
+
+        val symbols = index.getSymbols(listOf(foo), previous)
+
+        assertTrue(symbols.contains("type:com.a.Foo"))
+        assertEquals(setOf(bar), index.getDependents(symbols, listOf(foo)))
+    }
+
+    @Test
+    fun findsTheFilesReferencingAChangedResource() {
+        val strings = source("src/main/res/values/strings.xml",
+            "<resources>\n    <string name=\"app_name\">App</string>\n</resources>\n")
+        val layout = source("src/main/res/layout/main.xml",
+            "<TextView android:text=\"@string/app_name\" />\n")
+        val activity = source("src/main/java/com/b/MainActivity.java",
+            "package com.b;\n\nclass MainActivity {\n    int title = R.string.app_name;\n}\n")
+        val index = DependencyIndex.load(rootDir, indexFile)
+        val files = listOf(foo, bar, baz, strings, layout, activity)
+        val previous = index.update(files, listOf(strings))
+
+        val dependents = index.getDependents(index.getSymbols(listOf(strings), previous), listOf(strings))
+
+        assertEquals(setOf(layout, activity), dependents)
+    }
+
+    @Test
+    fun keepsTheSymbolsAChangeRemoved() {
+        val index = DependencyIndex.load(rootDir, indexFile)
+        index.update(listOf(foo, bar, baz), emptyList())
+        foo.writeText("package com.a;\n\npublic class Renamed {}\n")
+        foo.setLastModified(foo.lastModified() + 10_000)
+
+        val previous = index.update(listOf(foo, bar, baz), listOf(foo))
+        val symbols = index.getSymbols(listOf(foo), previous)
+
+        assertTrue(symbols.contains("type:com.a.Renamed"))
+        assertEquals(setOf(bar), index.getDependents(symbols, listOf(foo)))
+    }
+
+    @Test
+    fun reusesTheSavedEntriesOfUnchangedFiles() {
+        val index = DependencyIndex.load(rootDir, indexFile)
+        index.update(listOf(foo, bar, baz), emptyList())
+        index.save()
+        // same size and time: the saved entry still says Bar references Foo
+        val lastModified = bar.lastModified()
+        bar.writeText(bar.readText().replace("Foo foo;", "Qux qux;"))
+        bar.setLastModified(lastModified)
+
+        val loaded = DependencyIndex.load(rootDir, indexFile)
+        val previous = loaded.update(listOf(foo, bar, baz), listOf(foo))
+
+        assertEquals(setOf(bar), loaded.getDependents(loaded.getSymbols(listOf(foo), previous), listOf(foo)))
+    }
+
+    @Test
+    fun dropsFilesThatAreGone() {
+        val index = DependencyIndex.load(rootDir, indexFile)
+        index.update(listOf(foo, bar, baz), emptyList())
+        bar.delete()
+
+        val previous = index.update(listOf(foo, baz), listOf(foo))
+
+        assertEquals(emptySet<File>(), index.getDependents(index.getSymbols(listOf(foo), previous), listOf(foo)))
+    }
+
+    @Test
+    fun returnsTheLinesNamingASymbol() {
+        val text = "package com.b;\n\nimport com.a.Foo;\n\nclass Bar {\n    Foo foo;\n    int id = R.string.app_name;\n}\n"
+
+        val lines = DependencyIndex.getReferencingLines(text, listOf("type:com.a.Foo", "res:string/app_name"))
+
+        assertArrayEquals(intArrayOf(3, 3, 6, 7), lines)
+    }
+
+    private fun source(path: String, text: String): File {
+        val file = File(rootDir, path)
+        file.parentFile.mkdirs()
+        file.writeText(text)
+        return file
+    }
+}
@@ -0,0 +1,79 @@
+package com.skateboard.hecatoncheires.cache
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class ResultCacheTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var cacheDir: File
+
+    private lateinit var source: File
+
+    private val findings = listOf(
+        Finding("UnusedImport", "ali-other", "3", 2, -1, -1, 2, -1, -1, "unused import"),
+        Finding("NewApi", "Correctness", "Error", 5, 4, 80, 5, 12, 88, "call requires api 21")
+    )
+
+    @Before
+    fun setUp() {
+        cacheDir = folder.newFolder("cache")
+        source = folder.newFile("Foo.java")
+        source.writeText("class Foo {}\n")
+    }
+
+    @Test
+    fun returnsTheStoredFindingsOfTheSameContent() {
+        ResultCache(cacheDir, "rules").put(source, findings)
+
+        // a later build, possibly after the file was touched without changing it
+        source.setLastModified(source.lastModified() + 10_000)
+        assertEquals(findings, ResultCache(cacheDir, "rules").get(source))
+    }
+
+    @Test
+    fun keepsFilesWithoutFindings() {
+        ResultCache(cacheDir, "rules").put(source, emptyList())
+
+        assertEquals(emptyList<Finding>(), ResultCache(cacheDir, "rules").get(source))
+    }
+
+    @Test
+    fun missesWhenTheContentChanges() {
+        ResultCache(cacheDir, "rules").put(source, findings)
+        source.writeText("class Foo { int bar; }\n")
+
+        assertNull(ResultCache(cacheDir, "rules").get(source))
+    }
+
+    @Test
+    fun missesWhenTheConfigurationChanges() {
+        ResultCache(cacheDir, "rules").put(source, findings)
+
+        assertNull(ResultCache(cacheDir, "other rules").get(source))
+    }
+
+    @Test
+    fun ignoresMissingFiles() {
+        val missing = File(folder.root, "Missing.java")
+        val cache = ResultCache(cacheDir, "rules")
+        cache.put(missing, findings)
+
+        assertNull(cache.get(missing))
+    }
+
+    @Test
+    fun dropsUnreadableEntries() {
+        ResultCache(cacheDir, "rules").put(source, findings)
+        cacheDir.walkTopDown().filter { it.isFile }.forEach { it.writeBytes(ByteArray(2)) }
+
+        assertNull(ResultCache(cacheDir, "rules").get(source))
+    }
+}
@@ -0,0 +1,143 @@
+package com.skateboard.hecatoncheires.checktools
+
+import com.skateboard.hecatoncheires.util.ChangeSet
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class IndexedBaselineTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var projectDir: File
+
+    private lateinit var xmlFile: File
+
+    private lateinit var cacheFile: File
+
+    @Before
+    fun setUp() {
+        projectDir = folder.newFolder("app")
+        xmlFile = File(projectDir, "lint-baseline.xml")
+        cacheFile = File(folder.root, "baseline.idx")
+        xmlFile.writeText(
+            baseline(
+                issue("A", "Error", "first &quot;message&quot;", "src/Foo.java"),
+                issue("A", "Error", "first &quot;message&quot;", "src/Foo.java"),
+                issue("B", "Warning", "second message", "src/Bar.java"),
+                issue("C", "Warning", "third message", "src/Baz.java")
+            )
+        )
+    }
+
+    @Test
+    fun matchesEachListedOccurrenceOnce() {
+        val match = IndexedBaseline.load(xmlFile, cacheFile).newMatch()
+        assertTrue(match.findAndMark("A", "src/Foo.java", "first \"message\"", null))
+        assertTrue(match.findAndMark("A", "src/Foo.java", "first \"message\"", null))
+        assertFalse(match.findAndMark("A", "src/Foo.java", "first \"message\"", null))
+        assertFalse(match.findAndMark("B", "src/Foo.java", "second message", null))
+    }
+
+    @Test
+    fun fallsBackToTheLintMatcher() {
+        val match = IndexedBaseline.load(xmlFile, cacheFile).newMatch()
+        assertFalse(match.findAndMark("B", "src/Bar.java", "reworded message") { false })
+        assertTrue(match.findAndMark("B", "src/Bar.java", "reworded message") { true })
+        // the loose match took the entry, so the exact one is an extra occurrence now
+        assertFalse(match.findAndMark("B", "src/Bar.java", "second message", null))
+    }
+
+    @Test
+    fun leavesNewIssuesToTheIndex() {
+        val match = IndexedBaseline.load(xmlFile, cacheFile).newMatch()
+        val lintMatcher: () -> Boolean = { throw AssertionError("lint's baseline must not be parsed") }
+        // no entry of the issue at all
+        assertFalse(match.findAndMark("D", "src/Foo.java", "first \"message\"", lintMatcher))
+        // entries of the issue, but for another file
+        assertFalse(match.findAndMark("C", "src/Foo.java", "third message", lintMatcher))
+    }
+
+    @Test
+    fun mergesTheMatchesOfSeveralVariants() {
+        val baseline = IndexedBaseline.load(xmlFile, cacheFile)
+        val first = baseline.newMatch()
+        first.analyzed("src/Foo.java")
+        first.findAndMark("A", "src/Foo.java", "first \"message\"", null)
+        first.findAndMark("A", "src/Foo.java", "first \"message\"", null)
+        val second = baseline.newMatch()
+        second.analyzed("src/Foo.java")
+        second.analyzed("src/Bar.java")
+        second.findAndMark("A", "src/Foo.java", "first \"message\"", null)
+        second.findAndMark("B", "src/Bar.java", "second message", null)
+
+        val merged = baseline.count(listOf(first, second))
+        assertEquals(2, merged.foundErrors)
+        assertEquals(1, merged.foundWarnings)
+        assertEquals(0, merged.fixed)
+
+        // alone the second variant leaves one occurrence of A in an analyzed file unmatched
+        val single = baseline.count(listOf(second))
+        assertEquals(1, single.foundErrors)
+        assertEquals(1, single.foundWarnings)
+        assertEquals(1, single.fixed)
+    }
+
+    @Test
+    fun rewritesOnlyTheAnalyzedFiles() {
+        val baseline = IndexedBaseline.load(xmlFile, cacheFile)
+        val match = baseline.newMatch()
+        match.analyzed("src/Foo.java")
+        match.analyzed("src/Bar.java")
+        match.findAndMark("A", "src/Foo.java", "first \"message\"", null)
+
+        baseline.rewrite(listOf(match), emptyList(), projectDir, ChangeSet.empty(projectDir))
+
+        val text = xmlFile.readText()
+        assertEquals(1, Regex("""id="A"""").findAll(text).count())
+        assertFalse(text.contains("id=\"B\""))
+        assertTrue(text.contains("id=\"C\""))
+        assertTrue(text.contains("first &quot;message&quot;"))
+        assertTrue(text.trimEnd().endsWith("</issues>"))
+    }
+
+    @Test
+    fun rebuildsTheCacheWhenTheContentChanges() {
+        IndexedBaseline.load(xmlFile, cacheFile)
+        assertTrue(cacheFile.isFile)
+        val cached = IndexedBaseline.load(xmlFile, cacheFile).newMatch()
+        assertTrue(cached.findAndMark("C", "src/Baz.java", "third message", null))
+
+        xmlFile.writeText(baseline(issue("D", "Warning", "fourth message", "src/Baz.java")))
+        val rebuilt = IndexedBaseline.load(xmlFile, cacheFile).newMatch()
+        assertFalse(rebuilt.findAndMark("C", "src/Baz.java", "third message", null))
+        assertTrue(rebuilt.findAndMark("D", "src/Baz.java", "fourth message", null))
+    }
+
+    private fun baseline(vararg issues: String): String {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+                "<issues format=\"4\" by=\"lint 3.1.3\">\n\n" +
+                issues.joinToString("") +
+                "</issues>\n"
+    }
+
+    private fun issue(id: String, severity: String, message: String, path: String): String {
+        return "    <issue\n" +
+                "        id=\"$id\"\n" +
+                "        severity=\"$severity\"\n" +
+                "        message=\"$message\"\n" +
+                "        category=\"Correctness\"\n" +
+                "        priority=\"5\"\n" +
+                "        summary=\"Summary\">\n" +
+                "        <location\n" +
+                "            file=\"$path\"\n" +
+                "            line=\"3\"/>\n" +
+                "    </issue>\n\n"
+    }
+}
@@ -0,0 +1,87 @@
+package com.skateboard.hecatoncheires.checktools
+
+import com.android.tools.lint.gradle.api.DelegatingClassLoader
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.net.URL
+
+class LintClassLoaderPoolTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private var created = 0
+
+    private val create: (Set<File>) -> DelegatingClassLoader = {
+        created++
+        DelegatingClassLoader(arrayOf<URL>())
+    }
+
+    @Test
+    fun reusesAnIdleLoaderOfTheSameClassPath() {
+        val classPath = setOf(jar("lint.jar", "1"))
+        val first = LintClassLoaderPool.acquire(classPath, false, create)
+        val loader = first.loader
+        first.close()
+
+        val second = LintClassLoaderPool.acquire(classPath, false, create)
+
+        assertSame(loader, second.loader)
+        assertEquals(1, created)
+        second.close()
+    }
+
+    @Test
+    fun leasesEachLoaderToOneRun() {
+        val classPath = setOf(jar("lint.jar", "1"))
+        val first = LintClassLoaderPool.acquire(classPath, false, create)
+        val second = LintClassLoaderPool.acquire(classPath, false, create)
+
+        assertNotSame(first.loader, second.loader)
+        first.close()
+        second.close()
+    }
+
+    @Test
+    fun createsANewLoaderForAJarRebuiltAtTheSamePath() {
+        val jar = jar("checks.jar", "1")
+        val first = LintClassLoaderPool.acquire(setOf(jar), false, create)
+        val loader = first.loader
+        first.close()
+        jar.writeText("rebuilt")
+        jar.setLastModified(jar.lastModified() + 2000)
+
+        val second = LintClassLoaderPool.acquire(setOf(jar), false, create)
+
+        assertNotSame(loader, second.loader)
+        assertEquals(2, created)
+        second.close()
+    }
+
+    @Test
+    fun keepsTheLoadersOfOtherClassPaths() {
+        val app = setOf(jar("app-lint.jar", "1"))
+        val library = setOf(jar("library-lint.jar", "1"))
+        val first = LintClassLoaderPool.acquire(app, false, create)
+        val appLoader = first.loader
+        first.close()
+        LintClassLoaderPool.acquire(library, false, create).close()
+
+        val second = LintClassLoaderPool.acquire(app, false, create)
+
+        assertSame(appLoader, second.loader)
+        assertEquals(2, created)
+        second.close()
+    }
+
+    private fun jar(name: String, content: String): File {
+        val file = folder.newFile(name)
+        file.writeText(content)
+        return file
+    }
+}
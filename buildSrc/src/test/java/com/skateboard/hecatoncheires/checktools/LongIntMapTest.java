@@ -0,0 +1,64 @@
+package com.skateboard.hecatoncheires.checktools;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LongIntMapTest {
+
+    @Test
+    public void returnsAbsentForUnknownKeys() {
+        WarningMerger.LongIntMap map = new WarningMerger.LongIntMap();
+        assertEquals(-1, map.get(0L));
+        map.put(1L, 7);
+        assertEquals(-1, map.get(2L));
+    }
+
+    @Test
+    public void overwritesExistingKeys() {
+        WarningMerger.LongIntMap map = new WarningMerger.LongIntMap();
+        map.put(42L, 1);
+        map.put(42L, 2);
+        assertEquals(2, map.get(42L));
+    }
+
+    @Test
+    public void keepsExtremeKeys() {
+        WarningMerger.LongIntMap map = new WarningMerger.LongIntMap();
+        long[] keys = {0L, -1L, Long.MIN_VALUE, Long.MAX_VALUE};
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, map.get(keys[i]));
+        }
+    }
+
+    @Test
+    public void keepsEveryEntryWhileGrowing() {
+        WarningMerger.LongIntMap map = new WarningMerger.LongIntMap();
+        // multiples of the table size share their low bits and probe past each other
+        int count = 10_000;
+        for (int i = 0; i < count; i++) {
+            map.put(i * 64L, i);
+        }
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, map.get(i * 64L));
+        }
+        assertEquals(-1, map.get(count * 64L));
+    }
+
+    @Test
+    public void overwritesAfterGrowing() {
+        WarningMerger.LongIntMap map = new WarningMerger.LongIntMap();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, i);
+        }
+        for (int i = 0; i < 100; i++) {
+            map.put(i, i + 1000);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i + 1000, map.get(i));
+        }
+    }
+}
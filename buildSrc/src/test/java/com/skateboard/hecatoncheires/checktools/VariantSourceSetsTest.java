@@ -0,0 +1,151 @@
+package com.skateboard.hecatoncheires.checktools;
+
+import com.android.builder.model.AndroidArtifact;
+import com.android.builder.model.AndroidProject;
+import com.android.builder.model.BuildType;
+import com.android.builder.model.BuildTypeContainer;
+import com.android.builder.model.Dependencies;
+import com.android.builder.model.ProductFlavor;
+import com.android.builder.model.ProductFlavorContainer;
+import com.android.builder.model.SourceProvider;
+import com.android.builder.model.Variant;
+import com.skateboard.hecatoncheires.util.ChangeSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class VariantSourceSetsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File projectDir;
+
+    private File changed;
+
+    @Before
+    public void setUp() throws IOException {
+        projectDir = folder.newFolder("app");
+        changed = new File(projectDir, "src/main/java/com/example/Foo.java");
+        changed.getParentFile().mkdirs();
+        changed.createNewFile();
+        new File(projectDir, "src/main/AndroidManifest.xml").createNewFile();
+    }
+
+    @Test
+    public void sharesMainSourcesBetweenBuildTypesWithoutOwnSources() {
+        Variant debug = variant("debug");
+        Variant release = variant("release");
+        VariantSourceSets sourceSets = new VariantSourceSets(
+                project(), Arrays.asList(release, debug), changeSet());
+
+        assertEquals(Collections.singletonList(changed), sourceSets.getChangeSet(debug).getFiles());
+        assertEquals(Collections.emptyList(), sourceSets.getChangeSet(release).getFiles());
+    }
+
+    @Test
+    public void analyzesMainSourcesPerBuildTypeWithOwnSources() throws IOException {
+        File own = new File(projectDir, "src/release/java/com/example/Bar.java");
+        own.getParentFile().mkdirs();
+        own.createNewFile();
+        Variant debug = variant("debug");
+        Variant release = variant("release");
+        VariantSourceSets sourceSets = new VariantSourceSets(
+                project(), Arrays.asList(debug, release), changeSet());
+
+        assertEquals(Collections.singletonList(changed), sourceSets.getChangeSet(debug).getFiles());
+        assertEquals(Collections.singletonList(changed),
+                sourceSets.getChangeSet(release).getFiles());
+    }
+
+    private ChangeSet changeSet() {
+        return new ChangeSet(projectDir, Collections.singletonList(changed), null, null,
+                Collections.emptyList(), Collections.emptyMap());
+    }
+
+    private AndroidProject project() {
+        Map<String, Object> defaultConfig = new HashMap<>();
+        defaultConfig.put("getSourceProvider", sourceProvider("main"));
+        Map<String, Object> values = new HashMap<>();
+        values.put("getCompileTarget", "android-27");
+        values.put("getDefaultConfig", stub(ProductFlavorContainer.class, defaultConfig));
+        values.put("getBuildTypes", Arrays.asList(buildType("debug"), buildType("release")));
+        return stub(AndroidProject.class, values);
+    }
+
+    private BuildTypeContainer buildType(String name) {
+        Map<String, Object> buildType = new HashMap<>();
+        buildType.put("getName", name);
+        Map<String, Object> values = new HashMap<>();
+        values.put("getBuildType", stub(BuildType.class, buildType));
+        values.put("getSourceProvider", sourceProvider(name));
+        return stub(BuildTypeContainer.class, values);
+    }
+
+    private SourceProvider sourceProvider(String name) {
+        File dir = new File(projectDir, "src/" + name);
+        Map<String, Object> values = new HashMap<>();
+        values.put("getName", name);
+        values.put("getManifestFile", new File(dir, "AndroidManifest.xml"));
+        values.put("getJavaDirectories", Collections.singletonList(new File(dir, "java")));
+        values.put("getResDirectories", Collections.singletonList(new File(dir, "res")));
+        values.put("getAssetsDirectories", Collections.singletonList(new File(dir, "assets")));
+        return stub(SourceProvider.class, values);
+    }
+
+    private Variant variant(String name) {
+        Map<String, Object> artifact = new HashMap<>();
+        artifact.put("getDependencies", stub(Dependencies.class, Collections.emptyMap()));
+        Map<String, Object> values = new HashMap<>();
+        values.put("getName", name);
+        values.put("getBuildType", name);
+        values.put("getMainArtifact", stub(AndroidArtifact.class, artifact));
+        values.put("getMergedFlavor", stub(ProductFlavor.class, Collections.emptyMap()));
+        return stub(Variant.class, values);
+    }
+
+    /**
+     * Implements a model interface with the given getter values; the other getters return
+     * empty collections, false, zero or null.
+     */
+    private static <T> T stub(Class<T> type, Map<String, Object> values) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (self, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("equals")) {
+                        return self == args[0];
+                    } else if (name.equals("hashCode")) {
+                        return System.identityHashCode(self);
+                    } else if (name.equals("toString")) {
+                        return type.getSimpleName() + values;
+                    } else if (values.containsKey(name)) {
+                        return values.get(name);
+                    }
+                    Class<?> returnType = method.getReturnType();
+                    if (Set.class.isAssignableFrom(returnType)) {
+                        return Collections.emptySet();
+                    } else if (Collection.class.isAssignableFrom(returnType)) {
+                        return Collections.emptyList();
+                    } else if (Map.class.isAssignableFrom(returnType)) {
+                        return Collections.emptyMap();
+                    } else if (returnType == boolean.class) {
+                        return false;
+                    } else if (returnType == int.class) {
+                        return 0;
+                    } else if (returnType == long.class) {
+                        return 0L;
+                    }
+                    return null;
+                });
+        return type.cast(proxy);
+    }
+}
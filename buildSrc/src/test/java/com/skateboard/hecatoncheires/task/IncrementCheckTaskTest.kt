@@ -0,0 +1,81 @@
+package com.skateboard.hecatoncheires.task
+
+import com.skateboard.hecatoncheires.Constants.Companion.INCREMENT_CHECK
+import com.skateboard.hecatoncheires.Constants.Companion.LINT_RESULT
+import com.skateboard.hecatoncheires.Constants.Companion.PMD_RESULT
+import com.skateboard.hecatoncheires.util.CheckResult
+import org.gradle.api.Project
+import org.gradle.api.Task
+import org.gradle.api.internal.tasks.TaskExecutionOutcome
+import org.gradle.api.internal.tasks.TaskStateInternal
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.FileInputStream
+import java.util.*
+
+class IncrementCheckTaskTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var project: Project
+
+    @Before
+    fun setUp() {
+        project = ProjectBuilder.builder().withProjectDir(folder.newFolder("app")).build()
+    }
+
+    @Test
+    fun restoresTheResultsOfUpToDateChecksOnARetriedCommit() {
+        val pmd = project.tasks.create("pmdcheck")
+        val lint = project.tasks.create("incrementlint")
+        // the first commit attempt ran both checks
+        CheckResult.record(pmd, PMD_RESULT, null) { }
+        CheckResult.record(lint, LINT_RESULT, null) { }
+        // the retried one: the hook clears the result, Gradle finds both checks up to date
+        CheckResult.getResultFile(project).delete()
+        setOutcome(pmd, TaskExecutionOutcome.UP_TO_DATE)
+        setOutcome(lint, TaskExecutionOutcome.FROM_CACHE)
+
+        createCheckTask(pmd, lint).check()
+
+        val result = readResult()
+        assertEquals(CheckResult.PASSED, result.getProperty("status"))
+        assertEquals(CheckResult.PASSED, result.getProperty(":.pmd.status"))
+        assertEquals(CheckResult.PASSED, result.getProperty(":.lint.status"))
+    }
+
+    @Test
+    fun ignoresTheFragmentsOfChecksSkippedForOtherReasons() {
+        val pmd = project.tasks.create("pmdcheck")
+        CheckResult.record(pmd, PMD_RESULT, null) { }
+        CheckResult.getResultFile(project).delete()
+        // onlyIf skipped it: the fragment is from an older run
+        setOutcome(pmd, TaskExecutionOutcome.SKIPPED)
+
+        createCheckTask(pmd).check()
+
+        assertNull(readResult().getProperty(":.pmd.status"))
+    }
+
+    private fun createCheckTask(vararg dependencies: Task): IncrementCheckTask {
+        val checkTask = project.tasks.create(INCREMENT_CHECK, IncrementCheckTask::class.java)
+        checkTask.dependsOn(*dependencies)
+        return checkTask
+    }
+
+    private fun setOutcome(task: Task, outcome: TaskExecutionOutcome) {
+        (task.state as TaskStateInternal).setOutcome(outcome)
+    }
+
+    private fun readResult(): Properties {
+        val properties = Properties()
+        FileInputStream(CheckResult.getResultFile(project)).use { properties.load(it) }
+        return properties
+    }
+}
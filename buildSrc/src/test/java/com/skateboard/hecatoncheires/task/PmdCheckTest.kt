@@ -0,0 +1,99 @@
+package com.skateboard.hecatoncheires.task
+
+import com.skateboard.hecatoncheires.util.ChangeSet
+import com.skateboard.hecatoncheires.util.CheckResult
+import com.skateboard.hecatoncheires.util.PmdReport
+import com.skateboard.hecatoncheires.util.PmdViolation
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.Assert.assertEquals
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileInputStream
+import java.util.*
+
+class PmdCheckTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var project: Project
+
+    private lateinit var source: File
+
+    private lateinit var xmlReport: File
+
+    @Before
+    fun setUp() {
+        project = ProjectBuilder.builder().withProjectDir(folder.newFolder("app")).build()
+        source = File(project.projectDir, "src/main/java/Foo.java")
+        source.parentFile.mkdirs()
+        source.writeText("class Foo {}\n")
+        xmlReport = File(project.buildDir, "reports/pmd/report.xml")
+    }
+
+    @Test
+    fun failsOnViolationsOfTheChangedLinesOnly() {
+        val check = check(ignoreFailures = false)
+        try {
+            check.run { listOf(violation(3), violation(10)) }
+            fail("the violation on the changed line must fail the check")
+        } catch (e: GradleException) {
+            // expected
+        }
+
+        assertEquals(listOf(3), PmdReport.read(xmlReport).map { it.beginLine })
+        val result = Properties()
+        FileInputStream(CheckResult.getResultFile(project)).use { result.load(it) }
+        assertEquals(CheckResult.FAILED, result.getProperty(":.pmd.status"))
+    }
+
+    @Test
+    fun analyzesOnlyFilesMissingFromTheCache() {
+        check(ignoreFailures = true).run { listOf(violation(3)) }
+        xmlReport.delete()
+
+        check(ignoreFailures = true).run { throw AssertionError("the file was cached") }
+
+        assertEquals(listOf(3), PmdReport.read(xmlReport).map { it.beginLine })
+    }
+
+    private fun check(ignoreFailures: Boolean): PmdCheck {
+        val changeSet = ChangeSet(
+            project.projectDir,
+            listOf(source.absoluteFile),
+            mapOf(source.absoluteFile to intArrayOf(2, 4))
+        )
+        return PmdCheck(
+            listOf(source),
+            changeSet.toMap(),
+            false,
+            File(project.buildDir, "cache"),
+            "rules",
+            project.buildDir,
+            project.projectDir,
+            false,
+            xmlReport,
+            null,
+            false,
+            ignoreFailures,
+            CheckResult.Target.of(project.tasks.maybeCreate("pmdcheck")),
+            emptySet(),
+            emptySet(),
+            emptyList(),
+            1,
+            5,
+            null,
+            null
+        )
+    }
+
+    private fun violation(line: Int): PmdViolation {
+        return PmdViolation(source, line, line, "Rule", "rules", 3, "message")
+    }
+}
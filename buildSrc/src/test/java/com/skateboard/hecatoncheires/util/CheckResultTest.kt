@@ -0,0 +1,92 @@
+package com.skateboard.hecatoncheires.util
+
+import com.skateboard.hecatoncheires.Constants.Companion.PMD_RESULT
+import org.gradle.api.GradleException
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileInputStream
+import java.util.*
+
+class CheckResultTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var project: Project
+
+    @Before
+    fun setUp() {
+        project = ProjectBuilder.builder().withProjectDir(folder.newFolder("app")).build()
+    }
+
+    @Test
+    fun recordsTheOutcomeInTheResultAndTheFragment() {
+        val task = project.tasks.create("pmdcheck")
+        val report = File(project.buildDir, "reports/pmd/report.xml")
+
+        CheckResult.record(task, PMD_RESULT, report) { }
+
+        val result = readResult()
+        assertEquals(CheckResult.PASSED, result.getProperty("status"))
+        assertEquals(CheckResult.PASSED, result.getProperty(":.pmd.status"))
+        assertEquals(report.absolutePath, result.getProperty(":.pmd.report"))
+        assertTrue(CheckResult.getFragmentFile(task).isFile)
+    }
+
+    @Test
+    fun restoresAPassedCheckAfterTheResultWasCleared() {
+        val task = project.tasks.create("pmdcheck")
+        val report = File(project.buildDir, "reports/pmd/report.xml")
+        CheckResult.record(task, PMD_RESULT, report) { }
+        // the hook removes the result before the next commit, where the task is up to date
+        CheckResult.getResultFile(project).delete()
+
+        assertTrue(CheckResult.restore(task))
+
+        val result = readResult()
+        assertEquals(CheckResult.PASSED, result.getProperty("status"))
+        assertEquals(CheckResult.PASSED, result.getProperty(":.pmd.status"))
+        assertEquals(report.absolutePath, result.getProperty(":.pmd.report"))
+    }
+
+    @Test
+    fun restoresAFailedCheckAsFailed() {
+        val task = project.tasks.create("pmdcheck")
+        try {
+            CheckResult.record(task, PMD_RESULT, null) { throw GradleException("2 PMD rule violations were found") }
+            fail()
+        } catch (e: GradleException) {
+            // expected
+        }
+        CheckResult.getResultFile(project).delete()
+
+        assertTrue(CheckResult.restore(task))
+
+        val result = readResult()
+        assertEquals(CheckResult.FAILED, result.getProperty("status"))
+        assertEquals("2 PMD rule violations were found", result.getProperty(":.pmd.message"))
+    }
+
+    @Test
+    fun restoresNothingWithoutAFragment() {
+        val task = project.tasks.create("pmdcheck")
+
+        assertFalse(CheckResult.restore(task))
+        assertFalse(CheckResult.getResultFile(project).exists())
+    }
+
+    private fun readResult(): Properties {
+        val properties = Properties()
+        FileInputStream(CheckResult.getResultFile(project)).use { properties.load(it) }
+        return properties
+    }
+}
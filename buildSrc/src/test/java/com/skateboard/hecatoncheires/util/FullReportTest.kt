@@ -0,0 +1,137 @@
+package com.skateboard.hecatoncheires.util
+
+import com.skateboard.hecatoncheires.cache.Finding
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.w3c.dom.Element
+import java.io.File
+import javax.xml.parsers.DocumentBuilderFactory
+
+class FullReportTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var projectDir: File
+
+    private lateinit var buildDir: File
+
+    private lateinit var foo: File
+
+    private lateinit var bar: File
+
+    @Before
+    fun setUp() {
+        projectDir = folder.newFolder("app")
+        buildDir = File(projectDir, "build")
+        foo = source("src/main/java/Foo.java")
+        bar = source("src/main/java/Bar.java")
+    }
+
+    @Test
+    fun replacesOnlyTheCheckedFiles() {
+        val report = FullReport.of(buildDir, projectDir, TOOL)
+        report.update(mapOf(foo to listOf(finding("A")), bar to listOf(finding("B"))))
+        report.render(TOOL)
+
+        FullReport.of(buildDir, projectDir, TOOL).apply {
+            update(mapOf(foo to listOf(finding("C"), finding("D"))))
+            render(TOOL)
+        }
+
+        assertEquals(
+            listOf("src/main/java/Bar.java" to "B", "src/main/java/Foo.java" to "C", "src/main/java/Foo.java" to "D"),
+            readReport()
+        )
+    }
+
+    @Test
+    fun dropsFilesWithoutFindings() {
+        val report = FullReport.of(buildDir, projectDir, TOOL)
+        report.update(mapOf(foo to listOf(finding("A")), bar to listOf(finding("B"))))
+        report.update(mapOf(foo to emptyList()))
+        report.render(TOOL)
+
+        assertEquals(listOf("src/main/java/Bar.java" to "B"), readReport())
+    }
+
+    @Test
+    fun dropsDeletedFiles() {
+        val report = FullReport.of(buildDir, projectDir, TOOL)
+        report.update(mapOf(foo to listOf(finding("A")), bar to listOf(finding("B"))))
+        bar.delete()
+        report.render(TOOL)
+
+        assertEquals(listOf("src/main/java/Foo.java" to "A"), readReport())
+    }
+
+    @Test
+    fun seedReplacesTheWholeReport() {
+        val report = FullReport.of(buildDir, projectDir, TOOL)
+        report.update(mapOf(foo to listOf(finding("A"))))
+        report.seed(mapOf(bar to listOf(finding("B"))))
+        report.render(TOOL)
+
+        assertEquals(listOf("src/main/java/Bar.java" to "B"), readReport())
+    }
+
+    @Test
+    fun startsOverAfterAnotherVersion() {
+        val report = FullReport.of(buildDir, projectDir, TOOL)
+        report.update(mapOf(foo to listOf(finding("A"))))
+        val index = File(buildDir, "hecatoncheires/full-report/$TOOL/index")
+        index.writeText("1\nsrc/main/java/Foo.java\n")
+
+        report.update(mapOf(bar to listOf(finding("B"))))
+        report.render(TOOL)
+
+        assertEquals(listOf("src/main/java/Bar.java" to "B"), readReport())
+    }
+
+    @Test
+    fun escapesMessages() {
+        val report = FullReport.of(buildDir, projectDir, TOOL)
+        report.update(mapOf(foo to listOf(finding("A", "use <b> & \"c\""))))
+        report.render(TOOL)
+
+        val finding = parseReport().getElementsByTagName("finding").item(0) as Element
+        assertEquals("use <b> & \"c\"", finding.textContent)
+    }
+
+    private fun readReport(): List<Pair<String, String>> {
+        val findings = mutableListOf<Pair<String, String>>()
+        val files = parseReport().getElementsByTagName("file")
+        for (i in 0 until files.length) {
+            val file = files.item(i) as Element
+            val fileFindings = file.getElementsByTagName("finding")
+            for (j in 0 until fileFindings.length) {
+                findings.add(file.getAttribute("name") to (fileFindings.item(j) as Element).getAttribute("rule"))
+            }
+        }
+        return findings
+    }
+
+    private fun parseReport(): Element {
+        val xml = File(buildDir, "hecatoncheires/full-report/$TOOL/report.xml")
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(xml).documentElement
+    }
+
+    private fun source(path: String): File {
+        val file = File(projectDir, path)
+        file.parentFile.mkdirs()
+        file.writeText("class ${file.nameWithoutExtension} {}\n")
+        return file
+    }
+
+    private fun finding(rule: String, message: String = "message"): Finding {
+        return Finding(rule, "", "3", 1, -1, -1, 1, -1, -1, message)
+    }
+
+    companion object {
+
+        private const val TOOL = "pmd"
+    }
+}
@@ -0,0 +1,116 @@
+package com.skateboard.hecatoncheires.util
+
+import org.eclipse.jgit.api.Git
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class GitUtilTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var rootDir: File
+
+    private lateinit var git: Git
+
+    @Before
+    fun setUp() {
+        rootDir = folder.newFolder("repo")
+        git = Git.init().setDirectory(rootDir).call()
+        write("Changed.java", "a\nb\nc\nd\ne\n")
+        write("Deleted.java", "class Deleted {}\n")
+        write("Unstaged.java", "class Unstaged {}\n")
+        commit("initial")
+    }
+
+    @After
+    fun tearDown() {
+        git.close()
+    }
+
+    @Test
+    fun readsTheWorkingTreeChanges() {
+        write("Changed.java", "a\nB\nc\nd\ne\n")
+        write("Added.java", "class Added {}\n")
+        git.add().addFilepattern("Added.java").call()
+        File(rootDir, "Deleted.java").delete()
+
+        val changeSet = GitUtil.readChangeSet(rootDir)
+
+        assertEquals(listOf("Added.java", "Changed.java"), paths(changeSet))
+    }
+
+    @Test
+    fun readsTheChangedLineRanges() {
+        // one line replaced, one deleted and one appended
+        write("Changed.java", "a\nB\nd\ne\nf\n")
+        write("Added.java", "class Added {}\n")
+        git.add().addFilepattern("Added.java").call()
+
+        val changeSet = GitUtil.readChangeSet(rootDir)
+        val lines = GitUtil.readChangedLines(changeSet)
+
+        assertArrayEquals(intArrayOf(2, 2, 5, 5), lines[file(changeSet, "Changed.java")])
+        assertArrayEquals(ChangeSet.WHOLE_FILE, lines[file(changeSet, "Added.java")])
+    }
+
+    @Test
+    fun readsOnlyTheStagedChanges() {
+        write("Changed.java", "a\nstaged\nc\nd\ne\n")
+        git.add().addFilepattern("Changed.java").call()
+        write("Changed.java", "a\nunstaged\nc\nd\ne\n")
+        write("Unstaged.java", "class Unstaged { int field; }\n")
+        git.rm().addFilepattern("Deleted.java").call()
+        val overlayDir = File(folder.root, "staged")
+
+        val changeSet = GitUtil.readChangeSet(rootDir, overlayDir)
+
+        assertEquals(listOf("Changed.java"), paths(changeSet))
+        val snapshot = changeSet.toAnalysisFile(file(changeSet, "Changed.java"))
+        assertEquals(File(overlayDir, "Changed.java"), snapshot)
+        assertEquals("a\nstaged\nc\nd\ne\n", snapshot.readText())
+        assertArrayEquals(intArrayOf(2, 2), GitUtil.readChangedLines(changeSet)[file(changeSet, "Changed.java")])
+    }
+
+    @Test
+    fun leavesSubmodulesOut() {
+        val libraryDir = folder.newFolder("library")
+        Git.init().setDirectory(libraryDir).call().use { library ->
+            File(libraryDir, "Library.java").writeText("class Library {}\n")
+            library.add().addFilepattern(".").call()
+            library.commit().setMessage("library").setAuthor("test", "test@example.com")
+                .setCommitter("test", "test@example.com").call()
+        }
+        git.submoduleAdd().setPath("lib").setURI(libraryDir.toURI().toString()).call().close()
+
+        val staged = GitUtil.readChangeSet(rootDir, File(folder.root, "staged"))
+        val changed = GitUtil.readChangeSet(rootDir)
+
+        assertEquals(listOf(".gitmodules"), paths(staged))
+        assertEquals(listOf(".gitmodules"), paths(changed))
+    }
+
+    private fun write(path: String, text: String) {
+        File(rootDir, path).writeText(text)
+    }
+
+    private fun commit(message: String) {
+        git.add().addFilepattern(".").call()
+        git.commit().setMessage(message).setAuthor("test", "test@example.com")
+            .setCommitter("test", "test@example.com").call()
+    }
+
+    private fun paths(changeSet: ChangeSet): List<String> {
+        return changeSet.files.map { it.relativeTo(changeSet.rootDir).invariantSeparatorsPath }.sorted()
+    }
+
+    private fun file(changeSet: ChangeSet, path: String): File {
+        return changeSet.files.first { it.relativeTo(changeSet.rootDir).invariantSeparatorsPath == path }
+    }
+}